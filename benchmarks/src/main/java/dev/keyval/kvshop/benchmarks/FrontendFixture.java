@@ -0,0 +1,91 @@
+package dev.keyval.kvshop.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.keyval.kvshop.frontend.AdsService;
+import dev.keyval.kvshop.frontend.CatalogReplica;
+import dev.keyval.kvshop.frontend.CheckoutService;
+import dev.keyval.kvshop.frontend.CouponService;
+import dev.keyval.kvshop.frontend.CurrencyRateProvider;
+import dev.keyval.kvshop.frontend.CurrencyService;
+import dev.keyval.kvshop.frontend.DownstreamClients;
+import dev.keyval.kvshop.frontend.DownstreamGuards;
+import dev.keyval.kvshop.frontend.ExecutionConfig;
+import dev.keyval.kvshop.frontend.HttpClientConfig;
+import dev.keyval.kvshop.frontend.HttpClientProperties;
+import dev.keyval.kvshop.frontend.InventoryService;
+import dev.keyval.kvshop.frontend.PricingService;
+import dev.keyval.kvshop.frontend.ProductController;
+import dev.keyval.kvshop.frontend.ResilienceProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Wires the frontend's services by hand, the way Spring would, against the given downstream host.
+ */
+public class FrontendFixture implements AutoCloseable {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final DownstreamClients downstreamClients;
+    private final PricingService pricingService;
+    private final CurrencyRateProvider currencyRateProvider;
+    private final ExecutorService downstreamExecutor;
+    private final DownstreamGuards downstreamGuards;
+    private final ProductController productController;
+
+    public FrontendFixture(String downstreamHost, long priceCacheSize) {
+        HttpClientProperties properties = new HttpClientProperties();
+        for (String service : List.of("inventory", "pricing", "coupon", "currency", "ads")) {
+            HttpClientProperties.Service settings = new HttpClientProperties.Service();
+            settings.setHost(downstreamHost);
+            settings.setMaxConnections(100);
+            properties.getServices().put(service, settings);
+        }
+        properties.setMaxTotal(500);
+
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        this.connectionManager = new HttpClientConfig().downstreamConnectionManager(properties);
+        this.downstreamClients = new DownstreamClients(properties, connectionManager, new RestTemplateBuilder(), meterRegistry);
+
+        this.downstreamExecutor = new ExecutionConfig().downstreamExecutor(64, 1000, meterRegistry);
+        this.downstreamGuards = new DownstreamGuards(new ResilienceProperties(), downstreamExecutor, meterRegistry);
+
+        InventoryService inventoryService = new InventoryService(downstreamHost, 1000, downstreamClients);
+        this.pricingService = new PricingService(downstreamHost, 50, 2, 4,
+                priceCacheSize, Duration.ofSeconds(30), null, downstreamClients, downstreamGuards, meterRegistry);
+        this.currencyRateProvider = new CurrencyRateProvider(new CurrencyService(downstreamHost, downstreamClients),
+                meterRegistry, List.of("usd-eur"), Duration.ofSeconds(60), Duration.ofSeconds(10));
+        currencyRateProvider.start();
+        CouponService couponService = new CouponService(downstreamHost, downstreamClients);
+        AdsService adsService = new AdsService(downstreamHost, downstreamClients);
+
+        CheckoutService checkoutService = new CheckoutService(inventoryService, pricingService, currencyRateProvider,
+                couponService, downstreamGuards, 100, 1000, 10000, Duration.ofHours(1), meterRegistry);
+
+        // No Kafka, so every request goes to the inventory stub as it did before the catalog was replicated
+        CatalogReplica catalogReplica = new CatalogReplica("", "catalog", 1000, new ObjectMapper(), meterRegistry);
+
+        this.productController = new ProductController(inventoryService, pricingService, currencyRateProvider,
+                couponService, adsService, checkoutService, catalogReplica, downstreamGuards, Duration.ofSeconds(5), Duration.ofSeconds(2),
+                100, Duration.ofSeconds(60), new ObjectMapper(), meterRegistry);
+    }
+
+    public ProductController productController() {
+        return productController;
+    }
+
+    @Override
+    public void close() {
+        downstreamGuards.shutdown();
+        downstreamExecutor.shutdownNow();
+        currencyRateProvider.shutdown();
+        pricingService.shutdown();
+        downstreamClients.close();
+        connectionManager.close();
+    }
+}
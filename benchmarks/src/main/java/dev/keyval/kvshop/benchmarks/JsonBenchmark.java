@@ -0,0 +1,85 @@
+package dev.keyval.kvshop.benchmarks;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.keyval.kvshop.frontend.CurrencyResult;
+import dev.keyval.kvshop.frontend.PriceResult;
+import dev.keyval.kvshop.frontend.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Jackson (de)serialization of the payloads exchanged between frontend, inventory, pricing and currency
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+
+    @Param({"20", "1000"})
+    public int catalogSize;
+
+    private ObjectMapper objectMapper;
+    private byte[] inventoryJson;
+    private Product[] products;
+    private byte[] priceJson;
+    private PriceResult priceResult;
+    private byte[] currencyJson;
+    private CurrencyResult currencyResult;
+
+    @Setup
+    public void setup() throws Exception {
+        // Same relevant defaults as the ObjectMapper Spring Boot configures
+        objectMapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+        inventoryJson = StubServers.inventoryJson(catalogSize).getBytes(StandardCharsets.UTF_8);
+        products = objectMapper.readValue(inventoryJson, Product[].class);
+        priceJson = "{\"id\":12,\"price\":23.45}".getBytes(StandardCharsets.UTF_8);
+        priceResult = new PriceResult(12, 23.45);
+        currencyJson = "{\"currencyPair\":\"usd-eur\",\"conversionRate\":4}".getBytes(StandardCharsets.UTF_8);
+        currencyResult = new CurrencyResult("usd-eur", 4);
+    }
+
+    @Benchmark
+    public Product[] deserializeProducts() throws Exception {
+        return objectMapper.readValue(inventoryJson, Product[].class);
+    }
+
+    @Benchmark
+    public byte[] serializeProducts() throws Exception {
+        return objectMapper.writeValueAsBytes(products);
+    }
+
+    @Benchmark
+    public PriceResult deserializePriceResult() throws Exception {
+        return objectMapper.readValue(priceJson, PriceResult.class);
+    }
+
+    @Benchmark
+    public byte[] serializePriceResult() throws Exception {
+        return objectMapper.writeValueAsBytes(priceResult);
+    }
+
+    @Benchmark
+    public CurrencyResult deserializeCurrencyResult() throws Exception {
+        return objectMapper.readValue(currencyJson, CurrencyResult.class);
+    }
+
+    @Benchmark
+    public byte[] serializeCurrencyResult() throws Exception {
+        return objectMapper.writeValueAsBytes(currencyResult);
+    }
+}
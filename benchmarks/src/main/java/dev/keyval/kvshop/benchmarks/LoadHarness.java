@@ -0,0 +1,200 @@
+package dev.keyval.kvshop.benchmarks;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the frontend with a mix of {@code GET /products} and {@code POST /buy} at a constant arrival rate
+ * (see {@link OpenLoadGenerator}) and reports latency percentiles, writing the full distributions to
+ * {@code <report-dir>/<endpoint>.hgrm}.
+ *
+ * <p>Without {@code --target} it runs on its own: the frontend jar is started against {@link StubServers}
+ * in this process, so nothing else has to be deployed. Options, as {@code --name=value}:
+ * <pre>
+ * target             frontend to send to, e.g. http://frontend:8080 (default: start the frontend jar)
+ * frontend-jar       jar to start (../frontend/target/frontend-0.0.1-SNAPSHOT.jar)
+ * rate               requests per second, across both endpoints (100)
+ * buy-share          fraction of the requests that are /buy, the rest are /products (0.2)
+ * products           catalog size, and the ids bought (20)
+ * hot-product        product id that gets hot-share of the purchases (12, the watch)
+ * hot-share          fraction of the purchases that go to hot-product, the rest are spread evenly
+ *                    over the other products (0, which leaves it out like the Go load generator does)
+ * stub-hot-hold-ms   how long the inventory stub spends on each purchase of hot-product, answering them one
+ *                    at a time (0)
+ * warmup-seconds     sent but not recorded (10)
+ * duration-seconds   recorded (60)
+ * report-seconds     interval between progress lines (5)
+ * max-in-flight      requests outstanding before the generator drops instead of sending (10000)
+ * report-dir         where the .hgrm files go (target/load)
+ * </pre>
+ */
+public class LoadHarness {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("target", "");
+        DEFAULTS.put("frontend-jar", "../frontend/target/frontend-0.0.1-SNAPSHOT.jar");
+        DEFAULTS.put("rate", "100");
+        DEFAULTS.put("buy-share", "0.2");
+        DEFAULTS.put("products", "20");
+        DEFAULTS.put("hot-product", "12");
+        DEFAULTS.put("hot-share", "0");
+        DEFAULTS.put("stub-hot-hold-ms", "0");
+        DEFAULTS.put("warmup-seconds", "10");
+        DEFAULTS.put("duration-seconds", "60");
+        DEFAULTS.put("report-seconds", "5");
+        DEFAULTS.put("max-in-flight", "10000");
+        DEFAULTS.put("report-dir", "target/load");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        int products = Integer.parseInt(options.get("products"));
+        int hotProduct = Integer.parseInt(options.get("hot-product"));
+        double hotShare = Double.parseDouble(options.get("hot-share"));
+        double buyShare = Double.parseDouble(options.get("buy-share"));
+        Path reportDir = Files.createDirectories(Paths.get(options.get("report-dir")));
+
+        StubServers stubs = null;
+        Process frontend = null;
+        try {
+            String target = options.get("target");
+            if (target.isEmpty()) {
+                stubs = new StubServers(products, hotProduct, Duration.ofMillis(Long.parseLong(options.get("stub-hot-hold-ms"))));
+                int port = freePort();
+                frontend = startFrontend(Paths.get(options.get("frontend-jar")), port, stubs.host(), reportDir.resolve("frontend.log"));
+                Process started = frontend;
+                Runtime.getRuntime().addShutdownHook(new Thread(started::destroy));
+                target = "http://127.0.0.1:" + port;
+            }
+            URI productsUri = URI.create(target + "/products");
+            String buyUri = target + "/buy?id=";
+
+            HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+            Duration requestTimeout = Duration.ofSeconds(30);
+            List<OpenLoadGenerator.Endpoint> endpoints = List.of(
+                    new OpenLoadGenerator.Endpoint("products", 1 - buyShare,
+                            () -> HttpRequest.newBuilder(productsUri).timeout(requestTimeout).GET().build()),
+                    new OpenLoadGenerator.Endpoint("buy", buyShare,
+                            () -> HttpRequest.newBuilder(URI.create(buyUri + productToBuy(products, hotProduct, hotShare)))
+                                    .timeout(requestTimeout)
+                                    .POST(HttpRequest.BodyPublishers.noBody())
+                                    .build()));
+            OpenLoadGenerator generator = new OpenLoadGenerator(client, endpoints,
+                    Double.parseDouble(options.get("rate")), Integer.parseInt(options.get("max-in-flight")));
+
+            System.out.printf("Sending %s requests/s to %s, %s of them /buy, after a %ss warmup%n",
+                    options.get("rate"), target, buyShare, options.get("warmup-seconds"));
+            generator.run(Duration.ofSeconds(Long.parseLong(options.get("warmup-seconds"))),
+                    Duration.ofSeconds(Long.parseLong(options.get("duration-seconds"))),
+                    Duration.ofSeconds(Long.parseLong(options.get("report-seconds"))),
+                    requestTimeout, System.out);
+
+            for (OpenLoadGenerator.Endpoint endpoint : endpoints) {
+                write(endpoint.getLatency(), reportDir.resolve(endpoint.getName() + ".hgrm"));
+                write(endpoint.getServiceTime(), reportDir.resolve(endpoint.getName() + "-service-time.hgrm"));
+            }
+            System.out.println("Latency distributions (in ms) written to " + reportDir.toAbsolutePath());
+        } finally {
+            if (frontend != null) {
+                frontend.destroy();
+                frontend.waitFor(30, TimeUnit.SECONDS);
+            }
+            if (stubs != null) {
+                stubs.close();
+            }
+        }
+    }
+
+    private static int productToBuy(int products, int hotProduct, double hotShare) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (products > 1 && hotProduct >= 1 && hotProduct <= products) {
+            if (random.nextDouble() < hotShare) {
+                return hotProduct;
+            }
+            // Any of the others, leaving out the hot one
+            int id = random.nextInt(1, products);
+            return id >= hotProduct ? id + 1 : id;
+        }
+        return random.nextInt(1, products + 1);
+    }
+
+    private static Process startFrontend(Path jar, int port, String downstreamHost, Path log) throws IOException, InterruptedException {
+        if (!Files.exists(jar)) {
+            throw new IllegalStateException(jar.toAbsolutePath() + " is missing, build the frontend first");
+        }
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-jar");
+        command.add(jar.toString());
+        command.add("--server.port=" + port);
+        for (String service : List.of("INVENTORY", "PRICING", "COUPON", "CURRENCY", "ADS")) {
+            command.add("--" + service + "_SERVICE_HOST=" + downstreamHost);
+        }
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/products")).build();
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+        System.out.println("Starting the frontend on port " + port + ", logging to " + log.toAbsolutePath());
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("The frontend exited with " + process.exitValue() + ", see " + log.toAbsolutePath());
+            }
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return process;
+                }
+            } catch (ConnectException e) {
+                // Not listening yet
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        process.destroy();
+        throw new IllegalStateException("The frontend didn't start within 2 minutes, see " + log.toAbsolutePath());
+    }
+
+    private static void write(Histogram histogram, Path file) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file))) {
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = arg.startsWith("--") && eq > 2 ? arg.substring(2, eq) : null;
+            if (name == null || !DEFAULTS.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected --name=value with one of " + DEFAULTS.keySet());
+            }
+            options.put(name, arg.substring(eq + 1));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,206 @@
+package dev.keyval.kvshop.benchmarks;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Sends requests at a constant arrival rate whatever the responses do (an open model), so a slow service
+ * builds up a backlog the way it would with real users instead of being waited for by the load generator.
+ *
+ * <p>Latency is measured from when each request was due, not from when it was sent, so time a request spent
+ * waiting behind a stalled sender counts too and stalls aren't hidden by the requests they kept from being
+ * sent (coordinated omission). The time from sending is recorded as well, as service time.
+ */
+public class OpenLoadGenerator {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final HttpClient client;
+    private final List<Endpoint> endpoints;
+    private final double ratePerSecond;
+    private final int maxInFlight;
+    private final double totalShare;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public OpenLoadGenerator(HttpClient client, List<Endpoint> endpoints, double ratePerSecond, int maxInFlight) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("The rate has to be positive, got " + ratePerSecond);
+        }
+        this.client = client;
+        this.endpoints = endpoints;
+        this.ratePerSecond = ratePerSecond;
+        this.maxInFlight = maxInFlight;
+        this.totalShare = endpoints.stream().mapToDouble(Endpoint::getShare).sum();
+        if (totalShare <= 0) {
+            throw new IllegalArgumentException("At least one endpoint needs a positive share of the requests");
+        }
+    }
+
+    // Sends for warmup and then duration, recording only requests due after the warmup, and prints every
+    // endpoint's latencies each reportInterval. Returns once the requests sent have completed or timed out
+    public void run(Duration warmup, Duration duration, Duration reportInterval, Duration drainTimeout, PrintStream out)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        Thread dispatcher = new Thread(() -> dispatch(start, measureFrom, end), "load-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        long nextReport = measureFrom + reportInterval.toNanos();
+        while (dispatcher.isAlive()) {
+            dispatcher.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(Math.min(nextReport, end) - System.nanoTime())));
+            if (System.nanoTime() >= nextReport) {
+                report(out, (System.nanoTime() - measureFrom) / 1e9, reportInterval);
+                nextReport += reportInterval.toNanos();
+            }
+        }
+        long drainDeadline = System.nanoTime() + drainTimeout.toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        if (inFlight.get() > 0) {
+            out.printf("%d requests still unanswered after %ss, left out%n", inFlight.get(), drainTimeout.toSeconds());
+        }
+        report(out, duration.toNanos() / 1e9, null);
+    }
+
+    private void dispatch(long start, long measureFrom, long end) {
+        double intervalNanos = 1e9 / ratePerSecond;
+        for (long n = 0; ; n++) {
+            // Due times are derived from the start rather than the previous request, so late sends don't drift
+            long due = start + (long) (n * intervalNanos);
+            if (due >= end) {
+                return;
+            }
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            send(pick(), due, due >= measureFrom);
+        }
+    }
+
+    private void send(Endpoint endpoint, long due, boolean measured) {
+        if (inFlight.get() >= maxInFlight) {
+            if (measured) {
+                endpoint.dropped.increment();
+            }
+            return;
+        }
+        inFlight.incrementAndGet();
+        long sent = System.nanoTime();
+        client.sendAsync(endpoint.request.get(), HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+            long now = System.nanoTime();
+            inFlight.decrementAndGet();
+            if (!measured) {
+                return;
+            }
+            endpoint.latency.recordValue(micros(now - due));
+            endpoint.serviceTime.recordValue(micros(now - sent));
+            if (failure != null || response.statusCode() >= 400) {
+                endpoint.errors.increment();
+            }
+        });
+    }
+
+    private Endpoint pick() {
+        double r = ThreadLocalRandom.current().nextDouble(totalShare);
+        for (Endpoint endpoint : endpoints) {
+            r -= endpoint.getShare();
+            if (r < 0) {
+                return endpoint;
+            }
+        }
+        return endpoints.get(endpoints.size() - 1);
+    }
+
+    // A null interval is the final report, over everything since the warmup
+    private void report(PrintStream out, double elapsedSeconds, Duration interval) {
+        for (Endpoint endpoint : endpoints) {
+            Histogram latency = endpoint.latency.getIntervalHistogram();
+            endpoint.totalLatency.add(latency);
+            endpoint.totalServiceTime.add(endpoint.serviceTime.getIntervalHistogram());
+            if (interval != null) {
+                out.printf(Locale.ROOT, "%7.1fs %-10s %8.1f/s  p50 %9.2fms  p99 %9.2fms  max %9.2fms%n", elapsedSeconds,
+                        endpoint.getName(), latency.getTotalCount() / (interval.toNanos() / 1e9),
+                        millis(latency, 50), millis(latency, 99), latency.getMaxValue() / 1000.0);
+            }
+        }
+        if (interval != null) {
+            return;
+        }
+        out.printf("%nLatency from when each request was due, over %.0fs after the warmup:%n", elapsedSeconds);
+        out.printf("%-10s %9s %9s %8s %8s %10s %10s %10s %10s %10s %16s%n", "endpoint", "requests", "rate/s", "errors",
+                "dropped", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "service p99 ms");
+        for (Endpoint endpoint : endpoints) {
+            Histogram latency = endpoint.totalLatency;
+            out.printf(Locale.ROOT, "%-10s %9d %9.1f %8d %8d %10.2f %10.2f %10.2f %10.2f %10.2f %16.2f%n", endpoint.getName(),
+                    latency.getTotalCount(), latency.getTotalCount() / elapsedSeconds, endpoint.errors.sum(),
+                    endpoint.dropped.sum(), millis(latency, 50), millis(latency, 90), millis(latency, 99),
+                    millis(latency, 99.9), latency.getMaxValue() / 1000.0, millis(endpoint.totalServiceTime, 99));
+        }
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static long micros(long nanos) {
+        return Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_TRACKABLE_MICROS);
+    }
+
+    /**
+     * One kind of request, sent for its share of the arrivals, with its latencies in microseconds.
+     */
+    public static class Endpoint {
+
+        private final String name;
+        private final double share;
+        private final Supplier<HttpRequest> request;
+        private final Recorder latency = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+        private final Recorder serviceTime = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+        private final Histogram totalLatency = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        private final Histogram totalServiceTime = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+
+        public Endpoint(String name, double share, Supplier<HttpRequest> request) {
+            this.name = name;
+            this.share = share;
+            this.request = request;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getShare() {
+            return share;
+        }
+
+        // From when requests were due, over the whole run once it has finished
+        public Histogram getLatency() {
+            return totalLatency;
+        }
+
+        // From when requests were actually sent
+        public Histogram getServiceTime() {
+            return totalServiceTime;
+        }
+    }
+}
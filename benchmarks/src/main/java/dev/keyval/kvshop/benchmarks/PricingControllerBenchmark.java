@@ -0,0 +1,84 @@
+package dev.keyval.kvshop.benchmarks;
+
+import dev.keyval.kvshop.pricing.AsyncLookupConfig;
+import dev.keyval.kvshop.pricing.AsyncPriceController;
+import dev.keyval.kvshop.pricing.IntDoubleMap;
+import dev.keyval.kvshop.pricing.PriceController;
+import dev.keyval.kvshop.pricing.PriceResult;
+import dev.keyval.kvshop.pricing.PriceStore;
+import dev.keyval.kvshop.pricing.PricingController;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Pricing's request handling, called directly without the servlet stack
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class PricingControllerBenchmark {
+
+    private static final List<Integer> PAGE_IDS = List.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20);
+
+    private PricingController controller;
+    private PriceController directController;
+    private AsyncPriceController asyncController;
+    private ExecutorService priceLookupExecutor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        IntDoubleMap prices = new IntDoubleMap(PAGE_IDS.size());
+        for (int id : PAGE_IDS) {
+            prices.put(id, 1 + (id % 50) + 0.99);
+        }
+        PriceStore priceStore = new PriceStore(prices);
+        controller = new PricingController(priceStore);
+        directController = new PriceController(priceStore);
+        priceLookupExecutor = new AsyncLookupConfig().priceLookupExecutor(16, 1000);
+        asyncController = new AsyncPriceController(priceStore, priceLookupExecutor, 1000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        priceLookupExecutor.shutdownNow();
+    }
+
+    // pricing.lookup-mode=direct
+    @Benchmark
+    public ResponseEntity<PriceResult> getPriceDirect() {
+        return directController.getPrice(ThreadLocalRandom.current().nextInt(1, 21));
+    }
+
+    // pricing.lookup-mode=async, including the hand-off back to the caller that Spring's async dispatch does
+    @Benchmark
+    public Object getPriceAsync() {
+        CompletableFuture<Object> done = new CompletableFuture<>();
+        asyncController.getPrice(ThreadLocalRandom.current().nextInt(1, 21)).setResultHandler(done::complete);
+        return done.join();
+    }
+
+    @Benchmark
+    public ResponseEntity<List<PriceResult>> getPrices() {
+        return controller.getPrices(PAGE_IDS);
+    }
+}
@@ -0,0 +1,58 @@
+package dev.keyval.kvshop.benchmarks;
+
+import dev.keyval.kvshop.frontend.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// ProductController.getProducts end to end, against in-process stubs of every downstream service
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ProductFanOutBenchmark {
+
+    @Param({"20", "200"})
+    public int catalogSize;
+
+    // 0 disables the frontend's price near-cache, so every page goes to pricing
+    @Param({"0", "10000"})
+    public long priceCacheSize;
+
+    private StubServers stubs;
+    private FrontendFixture frontend;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        stubs = new StubServers(catalogSize);
+        frontend = new FrontendFixture(stubs.host(), priceCacheSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frontend.close();
+        stubs.close();
+    }
+
+    @Benchmark
+    public List<Product> getProducts() {
+        return frontend.productController().getProducts(null, null, null).join().getBody();
+    }
+}
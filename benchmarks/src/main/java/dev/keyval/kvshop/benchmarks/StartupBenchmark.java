@@ -0,0 +1,161 @@
+package dev.keyval.kvshop.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Time from launching a service's jar until its first request succeeds, for the regular fat jar (plain) and the
+// fast-startup build (fast). Needs both built: mvn package and then mvn -Pfast-startup package in each service,
+// which make benchmarks does. The frontend's downstream services are stubs, and inventory needs a broker only to
+// relay orders, so it starts pointed at a port nothing listens on
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(120);
+
+    @Param({"frontend", "inventory", "pricing"})
+    public String service;
+
+    @Param({"plain", "fast"})
+    public String mode;
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+    private StubServers stubs;
+    private Path serviceDir;
+    private Path logFile;
+    private ProcessBuilder launcher;
+    private Process process;
+    private URI firstRequest;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        serviceDir = Paths.get(System.getProperty("services.dir", ".."), service, "target");
+        Path jar = jar();
+        if (!Files.exists(jar)) {
+            throw new IllegalStateException(jar.toAbsolutePath() + " is missing, build " + service
+                    + ("fast".equals(mode) ? " with -Pfast-startup" : "") + " first");
+        }
+        logFile = Files.createDirectories(Paths.get("target", "startup")).resolve(service + "-" + mode + ".log");
+        if ("frontend".equals(service)) {
+            stubs = new StubServers(20);
+        }
+    }
+
+    // Everything but starting the process, which is part of what's measured
+    @Setup(Level.Invocation)
+    public void prepareLaunch() throws IOException {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if ("fast".equals(mode)) {
+            command.add("-XX:SharedArchiveFile=" + serviceDir.resolve("fast-startup").resolve(service + ".jsa"));
+            command.add("-Dspring.aot.enabled=true");
+        }
+        command.add("-jar");
+        command.add(jar().toString());
+        command.add("--server.port=" + port);
+        switch (service) {
+            case "frontend":
+                for (String host : List.of("INVENTORY", "PRICING", "COUPON", "CURRENCY", "ADS")) {
+                    command.add("--" + host + "_SERVICE_HOST=" + stubs.host());
+                }
+                firstRequest = URI.create("http://127.0.0.1:" + port + "/products");
+                break;
+            case "inventory":
+                command.add("--kafka.servers=127.0.0.1:1");
+                command.add("--inventory.outbox.dir=" + Files.createTempDirectory("startup-outbox"));
+                firstRequest = URI.create("http://127.0.0.1:" + port + "/inventory");
+                break;
+            case "pricing":
+                firstRequest = URI.create("http://127.0.0.1:" + port + "/price?id=1");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown service " + service);
+        }
+        launcher = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(logFile.toFile());
+    }
+
+    @Benchmark
+    public int timeToFirstRequest() throws IOException, InterruptedException {
+        process = launcher.start();
+        HttpRequest request = HttpRequest.newBuilder(firstRequest).timeout(Duration.ofSeconds(5)).build();
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException(service + " exited with " + process.exitValue() + ", see " + logFile.toAbsolutePath());
+            }
+            try {
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() / 100 == 2) {
+                    return response.statusCode();
+                }
+            } catch (ConnectException e) {
+                // Not listening yet
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        throw new IllegalStateException(service + " didn't answer " + firstRequest + " within " + STARTUP_TIMEOUT);
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() throws InterruptedException {
+        if (process == null) {
+            return;
+        }
+        process.destroy();
+        if (!process.waitFor(30, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+        process = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (stubs != null) {
+            stubs.close();
+        }
+    }
+
+    private Path jar() {
+        Path dir = "fast".equals(mode) ? serviceDir.resolve("fast-startup") : serviceDir;
+        return dir.resolve(service + "-0.0.1-SNAPSHOT.jar");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package dev.keyval.kvshop.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process stand-ins for the inventory, pricing, coupon, currency and ads services,
+ * answering with the same JSON shapes the real services produce.
+ */
+public class StubServers implements AutoCloseable {
+
+    private static final String INVENTORY_ETAG = "\"1\"";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService hotProductAnswers = Executors.newSingleThreadScheduledExecutor();
+    private final byte[] inventoryBody;
+    private long hotProductFreeAt;
+
+    public StubServers(int catalogSize) throws IOException {
+        this(catalogSize, 0, Duration.ZERO);
+    }
+
+    // Purchases of hotProductId are answered one after another, hotProductHold apart, as if each held a single
+    // lock for that long. That is a stand-in for contention on a hot product, not a copy of the real inventory,
+    // which lets a few purchases of it through at once (HotItemGate) and whose lock simulation holds a lock in
+    // the ads service. The waiting purchases are scheduled rather than slept on, so they don't hold up the
+    // threads that answer everything else
+    public StubServers(int catalogSize, int hotProductId, Duration hotProductHold) throws IOException {
+        this.inventoryBody = inventoryJson(catalogSize).getBytes(StandardCharsets.UTF_8);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.executor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+        this.server.setExecutor(executor);
+
+        server.createContext("/inventory", exchange -> {
+            // Revalidates like the real inventory service; the catalog never changes here
+            exchange.getResponseHeaders().set("ETag", INVENTORY_ETAG);
+            if (INVENTORY_ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                respond(exchange, 304, new byte[0]);
+            } else {
+                respond(exchange, inventoryBody);
+            }
+        });
+        server.createContext("/buy", exchange -> {
+            if (!hotProductHold.isZero() && Integer.parseInt(queryParam(exchange.getRequestURI(), "id")) == hotProductId) {
+                long delay = hotProductTurn(hotProductHold.toNanos()) - System.nanoTime();
+                hotProductAnswers.schedule(() -> {
+                    try {
+                        respond(exchange, 200, new byte[0]);
+                    } catch (IOException e) {
+                        exchange.close();
+                    }
+                }, delay, TimeUnit.NANOSECONDS);
+                return;
+            }
+            respond(exchange, 200, new byte[0]);
+        });
+        server.createContext("/price", exchange -> {
+            int id = Integer.parseInt(queryParam(exchange.getRequestURI(), "id"));
+            respond(exchange, priceJson(id).getBytes(StandardCharsets.UTF_8));
+        });
+        server.createContext("/prices", exchange -> {
+            StringBuilder body = new StringBuilder("[");
+            String[] ids = queryParam(exchange.getRequestURI(), "ids").split(",");
+            for (int i = 0; i < ids.length; i++) {
+                if (i > 0) {
+                    body.append(',');
+                }
+                body.append(priceJson(Integer.parseInt(ids[i])));
+            }
+            respond(exchange, body.append(']').toString().getBytes(StandardCharsets.UTF_8));
+        });
+        server.createContext("/coupons", exchange -> respond(exchange, "{\"coupon\":10}".getBytes(StandardCharsets.UTF_8)));
+        server.createContext("/apply-coupon", exchange -> respond(exchange, "{\"coupon\":10}".getBytes(StandardCharsets.UTF_8)));
+        server.createContext("/rate/", exchange -> respond(exchange, "{\"conversionRate\":2}".getBytes(StandardCharsets.UTF_8)));
+        server.createContext("/ads", exchange -> respond(exchange,
+                ("[{\"id\":1,\"title\":\"Summer sale\",\"description\":\"Everything must go\",\"price\":9.99,\"postedDate\":\"2024-01-01T00:00:00.000+00:00\"},"
+                        + "{\"id\":2,\"title\":\"New watches\",\"description\":\"Just arrived\",\"price\":99.5,\"postedDate\":\"2024-01-02T00:00:00.000+00:00\"}]")
+                        .getBytes(StandardCharsets.UTF_8)));
+        server.start();
+    }
+
+    // When a hot product purchase arriving now is answered: once the ones before it are, plus its own hold
+    private synchronized long hotProductTurn(long holdNanos) {
+        long now = System.nanoTime();
+        if (hotProductFreeAt - now < 0) {
+            hotProductFreeAt = now;
+        }
+        hotProductFreeAt += holdNanos;
+        return hotProductFreeAt;
+    }
+
+    // host:port, as used in the *_SERVICE_HOST variables
+    public String host() {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public static String inventoryJson(int catalogSize) {
+        StringBuilder body = new StringBuilder("[");
+        for (int id = 1; id <= catalogSize; id++) {
+            if (id > 1) {
+                body.append(',');
+            }
+            body.append("{\"id\":").append(id)
+                    .append(",\"name\":\"Product ").append(id)
+                    .append("\",\"image\":\"https://emoji.aranja.com/static/emoji-data/img-apple-160/1f455.png\"}");
+        }
+        return body.append(']').toString();
+    }
+
+    private static String priceJson(int id) {
+        return "{\"id\":" + id + ",\"price\":" + (1 + (id % 50)) + ".99}";
+    }
+
+    private static String queryParam(URI uri, String name) {
+        for (String pair : uri.getRawQuery().split("&")) {
+            int eq = pair.indexOf('=');
+            if (pair.substring(0, eq).equals(name)) {
+                return pair.substring(eq + 1);
+            }
+        }
+        throw new IllegalArgumentException("Missing query parameter " + name);
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        respond(exchange, 200, body);
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        hotProductAnswers.shutdownNow();
+        executor.shutdownNow();
+    }
+}
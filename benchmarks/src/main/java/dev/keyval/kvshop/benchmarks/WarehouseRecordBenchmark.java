@@ -0,0 +1,106 @@
+package dev.keyval.kvshop.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.odigos.kvMall.OrderEvent;
+import io.odigos.kvMall.OrderEventDecoder;
+import io.odigos.kvMall.OrderRecordHandler;
+import io.odigos.kvMall.SalesStore;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Per-record work done by the warehouse consumer's workers
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WarehouseRecordBenchmark {
+
+    private byte[] binaryEvent;
+    private byte[] cartEvent;
+    private byte[] legacyEvent;
+    private ConsumerRecord<String, byte[]> binaryRecord;
+    private ConsumerRecord<String, byte[]> legacyRecord;
+    private OrderRecordHandler handler;
+
+    @Setup
+    public void setup() {
+        binaryEvent = ByteBuffer.allocate(37)
+                .put(OrderEventDecoder.MAGIC)
+                .put(OrderEventDecoder.VERSION_1)
+                .putLong(8717015383122528760L)
+                .putInt(12)
+                .putInt(1)
+                .putLong(2345)
+                .put("USD".getBytes(StandardCharsets.US_ASCII))
+                .putLong(System.currentTimeMillis())
+                .array();
+        // A five item cart
+        ByteBuffer cart = ByteBuffer.allocate(1 + 1 + 8 + 3 + 8 + 2 + 5 * 16)
+                .put(OrderEventDecoder.MAGIC)
+                .put(OrderEventDecoder.VERSION_2)
+                .putLong(8717015383122528761L)
+                .put("USD".getBytes(StandardCharsets.US_ASCII))
+                .putLong(System.currentTimeMillis())
+                .putShort((short) 5);
+        for (int id = 1; id <= 5; id++) {
+            cart.putInt(id).putInt(2).putLong(1099);
+        }
+        cartEvent = cart.array();
+        legacyEvent = "Product with id 12 has been bought".getBytes(StandardCharsets.UTF_8);
+
+        binaryRecord = record(binaryEvent);
+        legacyRecord = record(legacyEvent);
+        handler = new OrderRecordHandler(new SalesStore(1024, 60, 60000, 100000), new SimpleMeterRegistry());
+    }
+
+    private static ConsumerRecord<String, byte[]> record(byte[] value) {
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>("orders", 0, 42L, "12", value);
+        byte[] stampedAt = String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8);
+        record.headers()
+                .add("product-id", "12".getBytes(StandardCharsets.UTF_8))
+                .add("frontend-received-at", stampedAt)
+                .add("inventory-received-at", stampedAt)
+                .add("relayed-at", stampedAt);
+        return record;
+    }
+
+    @Benchmark
+    public OrderEvent decodeBinary() {
+        return OrderEventDecoder.decode(binaryEvent, 0L);
+    }
+
+    @Benchmark
+    public OrderEvent decodeCart() {
+        return OrderEventDecoder.decode(cartEvent, 0L);
+    }
+
+    @Benchmark
+    public OrderEvent decodeLegacy() {
+        return OrderEventDecoder.decode(legacyEvent, 0L);
+    }
+
+    @Benchmark
+    public void handleBinaryRecord() {
+        handler.handle(binaryRecord);
+    }
+
+    @Benchmark
+    public void handleLegacyRecord() {
+        handler.handle(legacyRecord);
+    }
+}
@@ -1,9 +1,7 @@
 package dev.keyval.kvshop.frontend;
 
-import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.web.client.RestTemplate;
 
-import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 
@@ -14,18 +12,23 @@ import org.springframework.stereotype.Service;
 public class AdsService {
     private final RestTemplate restTemplate;
     private final String adsServiceHost;
+    private volatile List<Ad> lastAds = List.of();
 
     public AdsService(@Value("${ADS_SERVICE_HOST}") String adsServiceHost,
-                      RestTemplateBuilder restTemplateBuilder) {
+                      DownstreamClients downstreamClients) {
         this.adsServiceHost = adsServiceHost;
-        this.restTemplate = restTemplateBuilder
-                .setConnectTimeout(Duration.ofSeconds(1))
-                .setReadTimeout(Duration.ofSeconds(2))
-                .build();
+        this.restTemplate = downstreamClients.restTemplate("ads");
     }
 
     public List<Ad> getads() {
         Ad[] result = restTemplate.getForObject("http://" + adsServiceHost + "/ads", Ad[].class);
-        return Arrays.asList(result);
+        List<Ad> ads = Arrays.asList(result);
+        lastAds = ads;
+        return ads;
+    }
+
+    // The ads from the last successful call, or none
+    public List<Ad> lastKnownAds() {
+        return lastAds;
     }
 }
@@ -0,0 +1,15 @@
+package dev.keyval.kvshop.frontend;
+
+import java.util.List;
+
+public class Cart {
+    private List<CartItem> items;
+
+    public List<CartItem> getItems() {
+        return items;
+    }
+
+    public void setItems(List<CartItem> items) {
+        this.items = items;
+    }
+}
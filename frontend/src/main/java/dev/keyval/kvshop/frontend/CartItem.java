@@ -0,0 +1,30 @@
+package dev.keyval.kvshop.frontend;
+
+public class CartItem {
+    private int id;
+    private int quantity = 1;
+
+    public CartItem() {
+    }
+
+    public CartItem(int id, int quantity) {
+        this.id = id;
+        this.quantity = quantity;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+}
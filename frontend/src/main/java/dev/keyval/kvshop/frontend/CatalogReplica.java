@@ -0,0 +1,208 @@
+package dev.keyval.kvshop.frontend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+// Keeps a local copy of inventory's catalog by following the compacted topic inventory publishes it to: the topic
+// is read from the start into a snapshot, and every later poll's changes are applied to a copy that is swapped in.
+// Readers get the current snapshot without locking or copying anything, and /products no longer calls inventory
+// for it. Without kafka.servers, until the topic has been read up to where it was at startup, or while it holds
+// no products at all (inventory hasn't published the catalog yet), there is no snapshot and callers fall back to
+// asking inventory
+@Service
+public class CatalogReplica {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogReplica.class);
+
+    private final String topic;
+    private final int maxPageSize;
+    private final ObjectMapper objectMapper;
+    private final AtomicReference<CatalogSnapshot> snapshot = new AtomicReference<>();
+    private final Thread follower;
+    private final Supplier<Consumer<String, byte[]>> consumers;
+    private volatile Consumer<String, byte[]> consumer;
+    private volatile boolean running = true;
+
+    @Autowired
+    public CatalogReplica(@Value("${kafka.servers:}") String bootstrapServers,
+                          @Value("${catalog.topic:catalog}") String topic,
+                          @Value("${catalog.page.max-size:1000}") int maxPageSize,
+                          ObjectMapper objectMapper,
+                          MeterRegistry meterRegistry) {
+        this(topic, maxPageSize, objectMapper, meterRegistry, bootstrapServers.isBlank() ? null : () -> createConsumer(bootstrapServers));
+    }
+
+    // Follows the topic with the consumers made by consumers, or not at all when it is null
+    CatalogReplica(String topic, int maxPageSize, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                   Supplier<Consumer<String, byte[]>> consumers) {
+        this.topic = topic;
+        this.maxPageSize = maxPageSize;
+        this.objectMapper = objectMapper;
+        this.consumers = consumers;
+        Gauge.builder("catalog.replica.version", snapshot, s -> s.get() == null ? Double.NaN : s.get().getVersion())
+                .description("Version of the local catalog snapshot, the catalog topic offset it was read up to")
+                .register(meterRegistry);
+        Gauge.builder("catalog.replica.products", snapshot, s -> s.get() == null ? Double.NaN : s.get().getProducts().size())
+                .register(meterRegistry);
+
+        this.follower = new Thread(this::follow, "catalog-replica");
+        follower.setDaemon(true);
+        if (consumers != null) {
+            follower.start();
+        }
+    }
+
+    // null while there is no local catalog yet
+    public CatalogSnapshot current() {
+        return snapshot.get();
+    }
+
+    // A page of the local catalog, or null while there is none and inventory has to be asked instead
+    public InventoryPage page(Collection<Integer> ids, String cursor, Integer limit) {
+        CatalogSnapshot current = snapshot.get();
+        return current == null ? null : current.page(ids, cursor, limit == null ? maxPageSize : Math.min(limit, maxPageSize));
+    }
+
+    private void follow() {
+        while (running) {
+            try (Consumer<String, byte[]> kafkaConsumer = consumers.get()) {
+                consumer = kafkaConsumer;
+                follow(kafkaConsumer);
+            } catch (WakeupException e) {
+                return;
+            } catch (KafkaException e) {
+                if (running) {
+                    log.warn("Failed to follow the catalog topic {}, reading it again: {}", topic, e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                TimeUnit.SECONDS.sleep(5);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow(Consumer<String, byte[]> kafkaConsumer) throws InterruptedException {
+        // Inventory creates the topic; until it has, there is nothing to read
+        List<PartitionInfo> partitionInfos = kafkaConsumer.partitionsFor(topic);
+        while (partitionInfos == null || partitionInfos.isEmpty()) {
+            TimeUnit.SECONDS.sleep(5);
+            partitionInfos = kafkaConsumer.partitionsFor(topic);
+        }
+        List<TopicPartition> partitions = partitionInfos.stream().map(info -> new TopicPartition(topic, info.partition())).toList();
+        kafkaConsumer.assign(partitions);
+        kafkaConsumer.seekToBeginning(partitions);
+        // The first snapshot is only published once everything that was on the topic at startup has been read,
+        // so requests never see part of the catalog, and once there has been a product, so an empty topic that
+        // inventory hasn't published to yet doesn't pass for an empty catalog
+        Map<TopicPartition, Long> startupEnd = kafkaConsumer.endOffsets(partitions);
+
+        // Only this thread touches the products being built; readers see them once they are in a snapshot
+        Map<Integer, Product> products = new HashMap<>();
+        boolean caughtUp = false;
+        boolean seenProduct = false;
+        while (running) {
+            ConsumerRecords<String, byte[]> records = kafkaConsumer.poll(Duration.ofSeconds(1));
+            for (ConsumerRecord<String, byte[]> record : records) {
+                seenProduct |= apply(products, record);
+            }
+            if (!caughtUp) {
+                caughtUp = seenProduct
+                        && partitions.stream().allMatch(partition -> kafkaConsumer.position(partition) >= startupEnd.get(partition));
+                if (caughtUp) {
+                    publish(products, kafkaConsumer, partitions);
+                    log.info("Loaded catalog snapshot {} with {} products", snapshot.get().getVersion(), products.size());
+                }
+            } else if (!records.isEmpty()) {
+                publish(products, kafkaConsumer, partitions);
+                log.debug("Updated catalog snapshot to {} with {} changes", snapshot.get().getVersion(), records.count());
+            }
+        }
+    }
+
+    // True for a record that holds a product, false for removals and records that were ignored
+    private boolean apply(Map<Integer, Product> products, ConsumerRecord<String, byte[]> record) {
+        int id;
+        try {
+            id = Integer.parseInt(record.key());
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring catalog record with key {}", record.key());
+            return false;
+        }
+        if (record.value() == null || record.value().length == 0) {
+            products.remove(id);
+            return false;
+        }
+        try {
+            products.put(id, objectMapper.readValue(record.value(), Product.class));
+            return true;
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable catalog record for product {}: {}", id, e.getMessage());
+            return false;
+        }
+    }
+
+    // The version is how far the topic has been read, which is the same on every frontend that has read as far
+    private void publish(Map<Integer, Product> products, Consumer<String, byte[]> kafkaConsumer, List<TopicPartition> partitions) {
+        long version = 0;
+        for (TopicPartition partition : partitions) {
+            version += kafkaConsumer.position(partition);
+        }
+        snapshot.set(new CatalogSnapshot(version, products.values()));
+    }
+
+    private static Consumer<String, byte[]> createConsumer(String bootstrapServers) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.CLIENT_ID_CONFIG, "frontend-catalog");
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        // Every frontend reads the whole topic itself, so there is no group and nothing to commit
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        // Leave creating the topic to inventory, which makes it compacted
+        props.put(ConsumerConfig.ALLOW_AUTO_CREATE_TOPICS_CONFIG, false);
+        return new KafkaConsumer<>(props);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        Consumer<String, byte[]> current = consumer;
+        if (current != null) {
+            current.wakeup();
+        }
+        follower.interrupt();
+    }
+}
@@ -0,0 +1,83 @@
+package dev.keyval.kvshop.frontend;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// An immutable, versioned copy of inventory's catalog. Nothing in it changes after it is built, so any number of
+// requests can read it at once; a change to the catalog builds a new snapshot
+public class CatalogSnapshot {
+
+    private final long version;
+    private final String etag;
+    // Sorted by id, which is the order inventory pages through the catalog in
+    private final List<Product> products;
+    private final int[] ids;
+    private final Map<Integer, Product> byId;
+
+    public CatalogSnapshot(long version, Collection<Product> products) {
+        List<Product> sorted = new ArrayList<>(products);
+        sorted.sort(Comparator.comparingInt(Product::getId));
+        this.version = version;
+        this.etag = "\"c" + version + "\"";
+        this.products = Collections.unmodifiableList(sorted);
+        this.ids = sorted.stream().mapToInt(Product::getId).toArray();
+        this.byId = new HashMap<>(sorted.size() * 2);
+        for (Product product : sorted) {
+            byId.put(product.getId(), product);
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    // Pages the same way inventory's /inventory does: up to limit products with an id after the cursor (the last
+    // id of the previous page), optionally restricted to the given ids
+    public InventoryPage page(Collection<Integer> ids, String cursor, int limit) {
+        Integer after;
+        try {
+            after = cursor == null ? null : Integer.valueOf(cursor);
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor " + cursor);
+        }
+
+        List<Product> selected;
+        if (ids == null) {
+            int from = after == null ? 0 : indexAfter(after);
+            selected = products.subList(from, Math.min(products.size(), from + limit + 1));
+        } else {
+            int[] wanted = ids.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+            selected = new ArrayList<>(Math.min(wanted.length, limit + 1));
+            for (int i = 0; i < wanted.length && selected.size() <= limit; i++) {
+                Product product = byId.get(wanted[i]);
+                if (product != null && (after == null || wanted[i] > after)) {
+                    selected.add(product);
+                }
+            }
+        }
+        // One product past the limit tells whether there is a next page
+        if (selected.size() > limit) {
+            List<Product> page = selected.subList(0, limit);
+            return new InventoryPage(page, String.valueOf(page.get(limit - 1).getId()), etag);
+        }
+        return new InventoryPage(selected, null, etag);
+    }
+
+    private int indexAfter(int id) {
+        int index = Arrays.binarySearch(ids, id);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+}
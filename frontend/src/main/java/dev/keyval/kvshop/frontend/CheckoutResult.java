@@ -0,0 +1,32 @@
+package dev.keyval.kvshop.frontend;
+
+public class CheckoutResult {
+    private final long orderId;
+    private final int items;
+    // In USD, before the coupon
+    private final double total;
+    private final int coupon;
+
+    public CheckoutResult(long orderId, int items, double total, int coupon) {
+        this.orderId = orderId;
+        this.items = items;
+        this.total = total;
+        this.coupon = coupon;
+    }
+
+    public long getOrderId() {
+        return orderId;
+    }
+
+    public int getItems() {
+        return items;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    public int getCoupon() {
+        return coupon;
+    }
+}
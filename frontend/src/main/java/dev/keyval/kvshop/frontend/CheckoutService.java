@@ -0,0 +1,130 @@
+package dev.keyval.kvshop.frontend;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+// Places a cart as one order. However many items it has, a checkout costs one batched price check,
+// one inventory call (which reserves everything and publishes a single event) and one coupon call
+@Service
+public class CheckoutService {
+
+    private static final Logger log = LoggerFactory.getLogger(CheckoutService.class);
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
+    private final InventoryService inventoryService;
+    private final PricingService pricingService;
+    private final CurrencyRateProvider currencyRateProvider;
+    private final CouponService couponService;
+    private final DownstreamGuard inventoryGuard;
+    private final DownstreamGuard couponGuard;
+    private final int maxItems;
+    private final int maxQuantity;
+    private final IdempotencyStore idempotencyStore;
+
+    @Autowired
+    public CheckoutService(InventoryService inventoryService,
+                           PricingService pricingService,
+                           CurrencyRateProvider currencyRateProvider,
+                           CouponService couponService,
+                           DownstreamGuards downstreamGuards,
+                           @Value("${checkout.max-items:100}") int maxItems,
+                           @Value("${checkout.max-quantity:1000}") int maxQuantity,
+                           @Value("${checkout.idempotency.maximum-size:10000}") long idempotencyMaximumSize,
+                           @Value("${checkout.idempotency.ttl:1h}") Duration idempotencyTtl,
+                           MeterRegistry meterRegistry) {
+        this.inventoryService = inventoryService;
+        this.pricingService = pricingService;
+        this.currencyRateProvider = currencyRateProvider;
+        this.couponService = couponService;
+        this.inventoryGuard = downstreamGuards.guard("inventory");
+        this.couponGuard = downstreamGuards.guard("coupon");
+        this.maxItems = maxItems;
+        this.maxQuantity = maxQuantity;
+        this.idempotencyStore = new IdempotencyStore(idempotencyMaximumSize, idempotencyTtl, meterRegistry);
+    }
+
+    public CompletableFuture<CheckoutResult> checkout(String idempotencyKey, Cart cart, RequestDeadline deadline) {
+        long receivedAtMillis = System.currentTimeMillis();
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            throw new InvalidCartException("Idempotency-Key must be between 1 and " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
+        }
+        List<CartItem> items = normalize(cart);
+        return idempotencyStore.execute(idempotencyKey, fingerprint(items), orderId -> placeOrder(orderId, items, receivedAtMillis, deadline));
+    }
+
+    private CompletableFuture<CheckoutResult> placeOrder(long orderId, List<CartItem> items, long receivedAtMillis, RequestDeadline deadline) {
+        List<Integer> ids = items.stream().map(CartItem::getId).toList();
+
+        // Validate fresh (uncached) prices for the whole cart at once; the conversion rate is served from memory
+        CompletableFuture<Map<Integer, Double>> pricesFuture = deadline.bound(pricingService.getPricesAsync(ids, true));
+        CompletableFuture<Integer> rateFuture = deadline.bound(currencyRateProvider.getConversionRateAsync("usd-eur"));
+
+        return pricesFuture.thenCombine(rateFuture, (prices, conversionRate) -> {
+                    double total = total(items, prices);
+                    log.debug("Checking out order {} with {} items for ${} USD (converted to €{} EUR)", orderId, items.size(), total, total * conversionRate);
+                    return prices;
+                })
+                // As with /buy, the order has gone through once inventory accepts it, so a coupon that
+                // can't be applied doesn't fail it
+                .thenCompose(prices -> deadline.bound(inventoryGuard.call(() -> {
+                    inventoryService.checkout(orderId, items, prices, receivedAtMillis);
+                    return total(items, prices);
+                })))
+                .thenCompose(total -> couponGuard.withFallback(deadline.bound(couponGuard.call(couponService::applyCoupon)), () -> null)
+                        .thenApply(coupon -> new CheckoutResult(orderId, items.size(), total, coupon == null ? 0 : coupon.getCoupon())));
+    }
+
+    // Merges repeated products and orders the items by product id, so equal carts look the same. Quantities are
+    // checked per line and again once merged, so they stay far from overflowing
+    private List<CartItem> normalize(Cart cart) {
+        if (cart == null || cart.getItems() == null || cart.getItems().isEmpty()) {
+            throw new InvalidCartException("A cart needs at least one item");
+        }
+        Map<Integer, Integer> quantities = new TreeMap<>();
+        for (CartItem item : cart.getItems()) {
+            if (item.getQuantity() <= 0 || item.getQuantity() > maxQuantity) {
+                throw new InvalidCartException("Quantity of product " + item.getId() + " must be between 1 and " + maxQuantity);
+            }
+            if (quantities.merge(item.getId(), item.getQuantity(), Integer::sum) > maxQuantity) {
+                throw new InvalidCartException("A cart can have at most " + maxQuantity + " of product " + item.getId());
+            }
+        }
+        if (quantities.size() > maxItems) {
+            throw new InvalidCartException("A cart can have at most " + maxItems + " different products");
+        }
+        List<CartItem> items = new ArrayList<>(quantities.size());
+        quantities.forEach((id, quantity) -> items.add(new CartItem(id, quantity)));
+        return items;
+    }
+
+    private static String fingerprint(List<CartItem> items) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (CartItem item : items) {
+            fingerprint.append(item.getId()).append('x').append(item.getQuantity()).append(',');
+        }
+        return fingerprint.toString();
+    }
+
+    private static double total(List<CartItem> items, Map<Integer, Double> prices) {
+        double total = 0;
+        for (CartItem item : items) {
+            Double price = prices.get(item.getId());
+            if (price == null) {
+                throw new IllegalStateException("Pricing service returned no price for product " + item.getId());
+            }
+            total += price * item.getQuantity();
+        }
+        return total;
+    }
+}
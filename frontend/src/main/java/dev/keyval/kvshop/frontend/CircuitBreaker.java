@@ -0,0 +1,130 @@
+package dev.keyval.kvshop.frontend;
+
+// Count-based circuit breaker over the outcomes of the last calls. Every method is a few field updates,
+// so plain synchronization is cheap enough
+public class CircuitBreaker {
+
+    // Returned by tryAcquirePermission when the call isn't allowed
+    public static final long NOT_PERMITTED = -1;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureRateThreshold;
+    private final int minimumCalls;
+    private final long openDurationNanos;
+    private final int halfOpenCalls;
+
+    // Ring buffer of the last outcomes, true for failures
+    private final boolean[] window;
+    private int next;
+    private int recorded;
+    private int failures;
+
+    private State state = State.CLOSED;
+    // Bumped on every state change. Permits carry the generation they were issued in, so the outcome of a call
+    // that outlived its state (say one let through while closed that fails once the circuit is half open) is ignored
+    private long generation;
+    private long openedAtNanos;
+    private int halfOpenInFlight;
+    private int halfOpenSucceeded;
+
+    public CircuitBreaker(ResilienceProperties.Policy policy) {
+        this.failureRateThreshold = policy.getFailureRateThreshold();
+        this.minimumCalls = policy.getMinimumCalls();
+        this.openDurationNanos = policy.getOpenDuration().toNanos();
+        this.halfOpenCalls = policy.getHalfOpenCalls();
+        this.window = new boolean[policy.getSlidingWindowSize()];
+    }
+
+    // Returns the permit that exactly one of onSuccess, onFailure or onNotAttempted must be called with,
+    // or NOT_PERMITTED
+    public synchronized long tryAcquirePermission() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAtNanos < openDurationNanos) {
+                return NOT_PERMITTED;
+            }
+            state = State.HALF_OPEN;
+            generation++;
+            halfOpenInFlight = 0;
+            halfOpenSucceeded = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight >= halfOpenCalls) {
+                return NOT_PERMITTED;
+            }
+            halfOpenInFlight++;
+        }
+        return generation;
+    }
+
+    public synchronized void onSuccess(long permit) {
+        if (permit != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            halfOpenInFlight--;
+            if (++halfOpenSucceeded >= halfOpenCalls) {
+                close();
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure(long permit) {
+        if (permit != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (recorded >= minimumCalls && failures * 100 >= failureRateThreshold * recorded) {
+                open();
+            }
+        }
+    }
+
+    public synchronized void onNotAttempted(long permit) {
+        if (permit == generation && state == State.HALF_OPEN) {
+            halfOpenInFlight--;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        window[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        generation++;
+        openedAtNanos = System.nanoTime();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        generation++;
+        next = 0;
+        recorded = 0;
+        failures = 0;
+    }
+}
@@ -10,26 +10,34 @@ import org.springframework.web.client.RestTemplate;
 public class CouponService {
 
     private final String couponServiceHost;
+    private final RestTemplate restTemplate;
+    private volatile CouponResult lastCoupons = new CouponResult(0);
 
     private static final Logger log = LoggerFactory.getLogger(CouponService.class);
 
-    public CouponService(@Value("${COUPON_SERVICE_HOST}") String couponServiceHost) {
+    public CouponService(@Value("${COUPON_SERVICE_HOST}") String couponServiceHost,
+                         DownstreamClients downstreamClients) {
         this.couponServiceHost = couponServiceHost;
+        this.restTemplate = downstreamClients.restTemplate("coupon");
+    }
+
+    // The coupons from the last successful call, or no coupon
+    public CouponResult lastKnownCoupons() {
+        return lastCoupons;
     }
 
     public CouponResult getCoupons() {
         // Make http request to coupon service
-        RestTemplate restTemplate = new RestTemplate();
         CouponResult res = restTemplate.getForObject("http://" + couponServiceHost + "/coupons", CouponResult.class);
-        log.info("Fetched coupons from coupon service, got result: {}", res.getCoupon());
+        log.debug("Fetched coupons from coupon service, got result: {}", res.getCoupon());
+        lastCoupons = res;
         return res;
     }
 
     public CouponResult applyCoupon() {
         // Make http request to coupon service
-        RestTemplate restTemplate = new RestTemplate();
         CouponResult res = restTemplate.postForObject("http://" + couponServiceHost + "/apply-coupon", null, CouponResult.class);
-        log.info("Applied coupon to coupon service, got result: {}", res.getCoupon());
+        log.debug("Applied coupon to coupon service, got result: {}", res.getCoupon());
         return res;
     }
 }
@@ -0,0 +1,25 @@
+package dev.keyval.kvshop.frontend;
+
+public class CurrencyRate {
+    private final String currencyPair;
+    private final int conversionRate;
+    private final long fetchedAtMillis;
+
+    public CurrencyRate(String currencyPair, int conversionRate, long fetchedAtMillis) {
+        this.currencyPair = currencyPair;
+        this.conversionRate = conversionRate;
+        this.fetchedAtMillis = fetchedAtMillis;
+    }
+
+    public String getCurrencyPair() {
+        return currencyPair;
+    }
+
+    public int getConversionRate() {
+        return conversionRate;
+    }
+
+    public long getFetchedAtMillis() {
+        return fetchedAtMillis;
+    }
+}
@@ -0,0 +1,137 @@
+package dev.keyval.kvshop.frontend;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@Component
+public class CurrencyRateProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(CurrencyRateProvider.class);
+
+    private final CurrencyService currencyService;
+    private final MeterRegistry meterRegistry;
+    private final List<String> knownPairs;
+    private final long refreshIntervalMillis;
+    private final long refreshJitterMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Counter refreshFailures;
+
+    // Last good rate per pair; reads never take a lock
+    private final Map<String, CurrencyRate> rates = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> scheduledPairs = new ConcurrentHashMap<>();
+
+    public CurrencyRateProvider(CurrencyService currencyService,
+                                MeterRegistry meterRegistry,
+                                @Value("${currency.pairs:usd-eur}") List<String> knownPairs,
+                                @Value("${currency.refresh-interval:60s}") Duration refreshInterval,
+                                @Value("${currency.refresh-jitter:10s}") Duration refreshJitter) {
+        this.currencyService = currencyService;
+        this.meterRegistry = meterRegistry;
+        this.knownPairs = knownPairs;
+        this.refreshIntervalMillis = refreshInterval.toMillis();
+        this.refreshJitterMillis = refreshJitter.toMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("currency-refresh-"));
+        this.refreshFailures = Counter.builder("currency.rate.refresh.failures")
+                .description("Failed refreshes of a currency rate from the currency service")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        knownPairs.forEach(pair -> ensureScheduled(pair, 0));
+    }
+
+    public int getConversionRate(String currencyPair) {
+        CurrencyRate rate = rates.get(currencyPair);
+        if (rate != null) {
+            return rate.getConversionRate();
+        }
+        // Unknown (or not yet loaded) pair: fetch once, then keep it refreshed with the others
+        try {
+            rate = fetch(currencyPair);
+        } catch (RuntimeException e) {
+            refreshFailures.increment();
+            throw e;
+        }
+        ensureScheduled(currencyPair, nextDelayMillis());
+        return rate.getConversionRate();
+    }
+
+    public CompletableFuture<Integer> getConversionRateAsync(String currencyPair) {
+        CurrencyRate rate = rates.get(currencyPair);
+        if (rate != null) {
+            return CompletableFuture.completedFuture(rate.getConversionRate());
+        }
+        return CompletableFuture.supplyAsync(() -> getConversionRate(currencyPair), scheduler);
+    }
+
+    private CurrencyRate fetch(String currencyPair) {
+        CurrencyRate rate = new CurrencyRate(currencyPair,
+                currencyService.getConversionRate(currencyPair), System.currentTimeMillis());
+        rates.put(currencyPair, rate);
+        return rate;
+    }
+
+    private void scheduledRefresh(String currencyPair) {
+        try {
+            fetch(currencyPair);
+        } catch (RuntimeException e) {
+            refreshFailures.increment();
+            log.warn("Failed to refresh conversion rate for {}, keeping last good value", currencyPair, e);
+        } finally {
+            scheduleRefresh(currencyPair, nextDelayMillis());
+        }
+    }
+
+    // Starts the refresh cycle of a pair, at most once per pair
+    private void ensureScheduled(String currencyPair, long initialDelayMillis) {
+        if (scheduledPairs.putIfAbsent(currencyPair, Boolean.TRUE) == null) {
+            Gauge.builder("currency.rate.age", () -> rateAgeSeconds(currencyPair))
+                    .description("Seconds since the conversion rate was last fetched successfully")
+                    .baseUnit("seconds")
+                    .tag("pair", currencyPair)
+                    .register(meterRegistry);
+            scheduleRefresh(currencyPair, initialDelayMillis);
+        }
+    }
+
+    private void scheduleRefresh(String currencyPair, long delayMillis) {
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(() -> scheduledRefresh(currencyPair), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Spread refreshes so replicas don't hit the currency service in lockstep
+    private long nextDelayMillis() {
+        long jitter = refreshJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(-refreshJitterMillis, refreshJitterMillis + 1) : 0;
+        return Math.max(1, refreshIntervalMillis + jitter);
+    }
+
+    private double rateAgeSeconds(String currencyPair) {
+        CurrencyRate rate = rates.get(currencyPair);
+        return rate == null ? Double.NaN : (System.currentTimeMillis() - rate.getFetchedAtMillis()) / 1000.0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -20,29 +20,29 @@ import org.springframework.web.client.UnknownContentTypeException;
 public class CurrencyService {
 
     private final String currencyServiceHost;
+    private final RestTemplate restTemplate;
 
-    private static final Logger log = LoggerFactory.getLogger(CouponService.class);
+    private static final Logger log = LoggerFactory.getLogger(CurrencyService.class);
+
+    // Enforce JSON headers
+    private static final HttpEntity<String> JSON_REQUEST = jsonRequest();
 
     @Autowired
-    public CurrencyService(@Value("${CURRENCY_SERVICE_HOST}") String currencyServiceHost) {
+    public CurrencyService(@Value("${CURRENCY_SERVICE_HOST}") String currencyServiceHost,
+                           DownstreamClients downstreamClients) {
         this.currencyServiceHost = currencyServiceHost;
+        this.restTemplate = downstreamClients.restTemplate("currency");
     }
 
     public int getConversionRate(String currencyPair) {
         try {
             String url = "http://" + currencyServiceHost + "/rate/" + currencyPair;
-            RestTemplate restTemplate = new RestTemplate();
-
-            // Enforce JSON headers
-            HttpHeaders headers = new HttpHeaders();
-            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
-            HttpEntity<String> entity = new HttpEntity<>(headers);
 
             // Make the request
             ResponseEntity<CurrencyResult> response = restTemplate.exchange(
                     url,
                     HttpMethod.GET,
-                    entity,
+                    JSON_REQUEST,
                     CurrencyResult.class);
 
             // Check the response
@@ -80,8 +80,14 @@ public class CurrencyService {
 
             // return conversionRate;
         } catch (UnknownContentTypeException ex) {
-            System.err.println("Currency service returned unexpected response body: " + ex.getResponseBodyAsString());
+            log.error("Currency service returned unexpected response body: {}", ex.getResponseBodyAsString());
             throw ex;
         }
     }
+
+    private static HttpEntity<String> jsonRequest() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        return new HttpEntity<>(headers);
+    }
 }
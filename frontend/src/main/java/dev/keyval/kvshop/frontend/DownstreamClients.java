@@ -0,0 +1,96 @@
+package dev.keyval.kvshop.frontend;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.concurrent.Cancellable;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class DownstreamClients {
+
+    private static final Logger log = LoggerFactory.getLogger(DownstreamClients.class);
+
+    private final HttpClientProperties properties;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final RestTemplateBuilder restTemplateBuilder;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, CloseableHttpClient> httpClients = new ConcurrentHashMap<>();
+    private final Map<String, RestTemplate> restTemplates = new ConcurrentHashMap<>();
+
+    public DownstreamClients(HttpClientProperties properties,
+                             PoolingHttpClientConnectionManager connectionManager,
+                             RestTemplateBuilder restTemplateBuilder,
+                             MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.connectionManager = connectionManager;
+        this.restTemplateBuilder = restTemplateBuilder;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public RestTemplate restTemplate(String service) {
+        return restTemplates.computeIfAbsent(service, this::createRestTemplate);
+    }
+
+    private RestTemplate createRestTemplate(String service) {
+        HttpClientProperties.Service settings = properties.getService(service);
+
+        // Every service gets its own request defaults on top of the one shared connection pool
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.of(properties.getConnectionRequestTimeout()))
+                .setResponseTimeout(Timeout.of(settings.getReadTimeout()))
+                .setConnectionKeepAlive(TimeValue.of(properties.getKeepAlive()))
+                .build();
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setConnectionManagerShared(true)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+        httpClients.put(service, httpClient);
+
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient) {
+            @Override
+            protected ClassicHttpRequest createHttpUriRequest(HttpMethod httpMethod, URI uri) {
+                ClassicHttpRequest request = super.createHttpUriRequest(httpMethod, uri);
+                // So a hedged call that lost can abort its request instead of waiting for the answer
+                if (request instanceof Cancellable cancellable) {
+                    DownstreamGuard.abortOnCancel(cancellable);
+                }
+                return request;
+            }
+        };
+        return restTemplateBuilder
+                .requestFactory(() -> requestFactory)
+                .additionalInterceptors(new DownstreamMetricsInterceptor(meterRegistry, service))
+                .build();
+    }
+
+    @PreDestroy
+    public void close() {
+        httpClients.forEach((service, httpClient) -> {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                log.warn("Failed to close http client for {}", service, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,298 @@
+package dev.keyval.kvshop.frontend;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.apache.hc.core5.concurrent.Cancellable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Circuit breaker, bulkhead and optional hedging around the blocking calls to one downstream service
+public class DownstreamGuard {
+
+    private static final Logger log = LoggerFactory.getLogger(DownstreamGuard.class);
+    private static final long HEDGE_DELAY_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // The attempt running on this thread, so the request it sends can be aborted if the attempt is cancelled
+    private static final ThreadLocal<Attempt<?>> runningAttempt = new ThreadLocal<>();
+
+    private final String service;
+    private final ResilienceProperties.Policy policy;
+    private final CircuitBreaker circuitBreaker;
+    private final Semaphore bulkhead;
+    private final Executor executor;
+    private final ScheduledExecutorService hedgeTimer;
+    private final MeterRegistry meterRegistry;
+
+    private final Counter circuitOpenRejections;
+    private final Counter bulkheadRejections;
+    private final Counter hedgesSent;
+    private final Counter hedgesWon;
+    private final Counter fallbacks;
+
+    private volatile long hedgeDelayMillis;
+    private volatile long hedgeDelayComputedAtNanos;
+
+    public DownstreamGuard(String service, ResilienceProperties.Policy policy, Executor executor,
+                           ScheduledExecutorService hedgeTimer, MeterRegistry meterRegistry) {
+        this.service = service;
+        this.policy = policy;
+        this.circuitBreaker = new CircuitBreaker(policy);
+        this.bulkhead = new Semaphore(policy.getMaxConcurrentCalls());
+        this.executor = executor;
+        this.hedgeTimer = hedgeTimer;
+        this.meterRegistry = meterRegistry;
+        this.hedgeDelayMillis = policy.getHedgeDefaultDelay().toMillis();
+        this.hedgeDelayComputedAtNanos = System.nanoTime();
+
+        this.circuitOpenRejections = counter("resilience.rejected", "reason", "circuit_open");
+        this.bulkheadRejections = counter("resilience.rejected", "reason", "bulkhead_full");
+        this.hedgesSent = counter("resilience.hedges", "outcome", "sent");
+        this.hedgesWon = counter("resilience.hedges", "outcome", "won");
+        this.fallbacks = Counter.builder("resilience.fallbacks").tag("service", service).register(meterRegistry);
+        // 0 closed, 1 open, 2 half open
+        Gauge.builder("resilience.circuit.state", () -> circuitBreaker.getState().ordinal())
+                .tag("service", service)
+                .register(meterRegistry);
+    }
+
+    // Runs the call on the downstream executor, unless the circuit is open or the bulkhead is full. A caller giving
+    // up on the result, by cancelling it or completing it with a timeout, cancels the call
+    public <T> CompletableFuture<T> call(Supplier<T> call) {
+        Attempt<T> attempt = start(call);
+        attempt.result.whenComplete((value, exception) -> attempt.cancel());
+        return attempt.result;
+    }
+
+    // For idempotent reads: if the first attempt hasn't answered after the hedge delay, a second one is sent and
+    // whichever succeeds first wins. Fails only when every attempt failed. Once the result is settled, by an
+    // attempt or by the caller giving up on it, the attempts still running are cancelled
+    public <T> CompletableFuture<T> hedged(Supplier<T> call) {
+        if (!policy.isHedge()) {
+            return call(call);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        Queue<Attempt<T>> attempts = new ConcurrentLinkedQueue<>();
+        attempt(call, result, pending, attempts, false);
+        ScheduledFuture<?> hedge = hedgeTimer.schedule(() -> {
+            if (!result.isDone()) {
+                pending.incrementAndGet();
+                hedgesSent.increment();
+                attempt(call, result, pending, attempts, true);
+            }
+        }, hedgeDelayMillis(), TimeUnit.MILLISECONDS);
+        result.whenComplete((value, exception) -> {
+            hedge.cancel(false);
+            attempts.forEach(Attempt::cancel);
+        });
+        return result;
+    }
+
+    private <T> void attempt(Supplier<T> call, CompletableFuture<T> result, AtomicInteger pending,
+                             Queue<Attempt<T>> attempts, boolean hedge) {
+        Attempt<T> attempt = start(call);
+        attempts.add(attempt);
+        if (result.isDone()) {
+            // Settled while this one was being started, after the others were cancelled
+            attempt.cancel();
+            return;
+        }
+        attempt.result.whenComplete((value, exception) -> {
+            if (exception == null) {
+                if (result.complete(value) && hedge) {
+                    hedgesWon.increment();
+                }
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(exception);
+            }
+        });
+    }
+
+    private <T> Attempt<T> start(Supplier<T> call) {
+        long permit = circuitBreaker.tryAcquirePermission();
+        if (permit == CircuitBreaker.NOT_PERMITTED) {
+            circuitOpenRejections.increment();
+            return failed(new DownstreamUnavailableException("Circuit for " + service + " is open"));
+        }
+        if (!bulkhead.tryAcquire()) {
+            circuitBreaker.onNotAttempted(permit);
+            bulkheadRejections.increment();
+            return failed(new DownstreamUnavailableException("Too many calls to " + service + " in flight"));
+        }
+        Attempt<T> attempt = new Attempt<>(call, permit);
+        try {
+            executor.execute(attempt);
+        } catch (RejectedExecutionException e) {
+            bulkhead.release();
+            circuitBreaker.onNotAttempted(permit);
+            return failed(e);
+        }
+        return attempt;
+    }
+
+    private <T> Attempt<T> failed(Throwable exception) {
+        Attempt<T> attempt = new Attempt<>(null, CircuitBreaker.NOT_PERMITTED);
+        attempt.settled.set(true);
+        attempt.result.completeExceptionally(exception);
+        return attempt;
+    }
+
+    // Called by the downstream clients for every request they create (see DownstreamClients)
+    static void abortOnCancel(Cancellable request) {
+        Attempt<?> attempt = runningAttempt.get();
+        if (attempt != null) {
+            attempt.abortOnCancel(request);
+        }
+    }
+
+    // For data the page can do without: any failure, including a timeout, is answered with the fallback
+    public <T> CompletableFuture<T> withFallback(CompletableFuture<T> future, Supplier<T> fallback) {
+        return future.exceptionally(exception -> {
+            fallbacks.increment();
+            log.debug("Falling back for {}: {}", service, exception.toString());
+            return fallback.get();
+        });
+    }
+
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    private long hedgeDelayMillis() {
+        long now = System.nanoTime();
+        if (now - hedgeDelayComputedAtNanos > HEDGE_DELAY_REFRESH_NANOS) {
+            hedgeDelayComputedAtNanos = now;
+            hedgeDelayMillis = computeHedgeDelayMillis();
+        }
+        return hedgeDelayMillis;
+    }
+
+    // The p95 of successful calls, as published for downstream.requests by DownstreamMetricsInterceptor
+    private long computeHedgeDelayMillis() {
+        double p95 = Double.NaN;
+        Timer timer = meterRegistry.find(DownstreamMetricsInterceptor.METRIC_NAME)
+                .tag("service", service)
+                .tag("outcome", "success")
+                .timer();
+        if (timer != null) {
+            for (ValueAtPercentile percentile : timer.takeSnapshot().percentileValues()) {
+                if (percentile.percentile() == 0.95) {
+                    p95 = percentile.value(TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        long delay = Double.isNaN(p95) || p95 <= 0 ? policy.getHedgeDefaultDelay().toMillis() : (long) Math.ceil(p95);
+        return Math.max(policy.getHedgeMinDelay().toMillis(), Math.min(policy.getHedgeMaxDelay().toMillis(), delay));
+    }
+
+    private Counter counter(String name, String tag, String value) {
+        return Counter.builder(name).tag("service", service).tag(tag, value).register(meterRegistry);
+    }
+
+    // One call holding a bulkhead permit and a circuit breaker permit, both given back exactly once: when the call
+    // ends, or right away when it's cancelled. A cancelled attempt that hasn't started is never sent; one that has
+    // is interrupted and its request aborted, which closes the connection instead of waiting for the answer
+    private final class Attempt<T> implements Runnable {
+
+        private final Supplier<T> call;
+        private final long permit;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        // Guarded by this
+        private boolean cancelled;
+        private Thread runner;
+        private Cancellable request;
+
+        Attempt(Supplier<T> call, long permit) {
+            this.call = call;
+            this.permit = permit;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            runningAttempt.set(this);
+            try {
+                T value = call.get();
+                if (settle()) {
+                    circuitBreaker.onSuccess(permit);
+                }
+                result.complete(value);
+            } catch (HttpClientErrorException e) {
+                // The service answered; a 4xx is about the request, not the service's health
+                if (settle()) {
+                    circuitBreaker.onSuccess(permit);
+                }
+                result.completeExceptionally(e);
+            } catch (RuntimeException | Error e) {
+                if (settle()) {
+                    circuitBreaker.onFailure(permit);
+                }
+                result.completeExceptionally(e);
+            } finally {
+                runningAttempt.remove();
+                synchronized (this) {
+                    runner = null;
+                    request = null;
+                }
+                // A cancel that raced the end of the call mustn't interrupt whatever this thread runs next
+                Thread.interrupted();
+            }
+        }
+
+        void cancel() {
+            if (!settle()) {
+                return;
+            }
+            circuitBreaker.onNotAttempted(permit);
+            result.cancel(false);
+            synchronized (this) {
+                cancelled = true;
+                if (request != null) {
+                    request.cancel();
+                }
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+        }
+
+        synchronized void abortOnCancel(Cancellable request) {
+            if (cancelled) {
+                request.cancel();
+            } else {
+                this.request = request;
+            }
+        }
+
+        private boolean settle() {
+            if (!settled.compareAndSet(false, true)) {
+                return false;
+            }
+            bulkhead.release();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package dev.keyval.kvshop.frontend;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+// One DownstreamGuard per downstream service, configured under resilience.services.<name>
+@Component
+@EnableConfigurationProperties(ResilienceProperties.class)
+public class DownstreamGuards {
+
+    private final ResilienceProperties properties;
+    private final ExecutorService downstreamExecutor;
+    private final MeterRegistry meterRegistry;
+    private final ScheduledExecutorService hedgeTimer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("hedge-timer-"));
+    private final Map<String, DownstreamGuard> guards = new ConcurrentHashMap<>();
+
+    public DownstreamGuards(ResilienceProperties properties,
+                            @Qualifier("downstreamExecutor") ExecutorService downstreamExecutor,
+                            MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.downstreamExecutor = downstreamExecutor;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public DownstreamGuard guard(String service) {
+        return guards.computeIfAbsent(service, name ->
+                new DownstreamGuard(name, properties.getService(name), downstreamExecutor, hedgeTimer, meterRegistry));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hedgeTimer.shutdownNow();
+    }
+}
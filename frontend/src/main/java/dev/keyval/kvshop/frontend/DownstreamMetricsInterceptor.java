@@ -0,0 +1,52 @@
+package dev.keyval.kvshop.frontend;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Times every call to one downstream service, up to the response headers, tagged by outcome.
+// Histogram buckets and percentiles are configured under management.metrics.distribution.*.downstream.requests
+public class DownstreamMetricsInterceptor implements ClientHttpRequestInterceptor {
+
+    public static final String METRIC_NAME = "downstream.requests";
+
+    private final MeterRegistry meterRegistry;
+    private final String service;
+    // Timers are registered on first use so that outcomes that never happen don't export empty histograms
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public DownstreamMetricsInterceptor(MeterRegistry meterRegistry, String service) {
+        this.meterRegistry = meterRegistry;
+        this.service = service;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        long start = System.nanoTime();
+        String outcome = "io_error";
+        try {
+            ClientHttpResponse response = execution.execute(request, body);
+            int status = response.getStatusCode().value();
+            outcome = status >= 500 ? "server_error" : status >= 400 ? "client_error" : "success";
+            return response;
+        } finally {
+            timers.computeIfAbsent(outcome, this::timer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer timer(String outcome) {
+        return Timer.builder(METRIC_NAME)
+                .description("Latency of calls to downstream services")
+                .tag("service", service)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,9 @@
+package dev.keyval.kvshop.frontend;
+
+// A downstream call that was not attempted, because the service's circuit is open or its bulkhead is full
+public class DownstreamUnavailableException extends RuntimeException {
+
+    public DownstreamUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,35 @@
+package dev.keyval.kvshop.frontend;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class ExecutionConfig {
+
+    // Runs blocking downstream calls so request threads are released while /products and /buy are composed
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService downstreamExecutor(@Value("${frontend.downstream.threads:64}") int threads,
+                                              @Value("${frontend.downstream.queue-capacity:1000}") int queueCapacity,
+                                              MeterRegistry meterRegistry) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("downstream-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        // executor.queued, executor.active, executor.pool.size... tagged name=downstream
+        new ExecutorServiceMetrics(executor, "downstream", Tags.empty()).bindTo(meterRegistry);
+        return executor;
+    }
+}
@@ -2,12 +2,17 @@ package dev.keyval.kvshop.frontend;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 public class FrontendApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(FrontendApplication.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(FrontendApplication.class, args);
+		// The fast-startup build starts the app once with this set, so the classes loaded on the way go into its CDS archive
+		if (Boolean.getBoolean("startup.training-run")) {
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 
 }
@@ -0,0 +1,71 @@
+package dev.keyval.kvshop.frontend;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.IdleConnectionEvictor;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+
+@Configuration
+@EnableConfigurationProperties(HttpClientProperties.class)
+public class HttpClientConfig {
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager downstreamConnectionManager(HttpClientProperties properties) {
+        ConnectionConfig defaultConfig = connectionConfig(properties, new HttpClientProperties.Service());
+
+        // Connect timeouts are a property of the connection, so they are resolved per target host
+        Map<HttpHost, ConnectionConfig> hostConfigs = new HashMap<>();
+        properties.getServices().values().stream()
+                .filter(service -> service.getHost() != null)
+                .forEach(service -> hostConfigs.put(targetHost(service.getHost()), connectionConfig(properties, service)));
+
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(properties.getMaxTotal())
+                .setMaxConnPerRoute(properties.getDefaultMaxPerRoute())
+                .setConnectionConfigResolver(route -> hostConfigs.getOrDefault(route.getTargetHost(), defaultConfig))
+                .build();
+
+        properties.getServices().values().stream()
+                .filter(service -> service.getHost() != null && service.getMaxConnections() > 0)
+                .forEach(service -> connectionManager.setMaxPerRoute(
+                        new HttpRoute(targetHost(service.getHost())), service.getMaxConnections()));
+
+        return connectionManager;
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public IdleConnectionEvictor downstreamIdleConnectionEvictor(PoolingHttpClientConnectionManager connectionManager,
+                                                                 HttpClientProperties properties) {
+        TimeValue maxIdle = TimeValue.of(properties.getIdleEviction());
+        return new IdleConnectionEvictor(connectionManager, maxIdle, maxIdle);
+    }
+
+    private static ConnectionConfig connectionConfig(HttpClientProperties properties, HttpClientProperties.Service service) {
+        return ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.of(service.getConnectTimeout()))
+                .setSocketTimeout(Timeout.of(service.getReadTimeout()))
+                .setValidateAfterInactivity(TimeValue.of(properties.getValidateAfterInactivity()))
+                .build();
+    }
+
+    static HttpHost targetHost(String host) {
+        try {
+            HttpHost httpHost = HttpHost.create("http://" + host);
+            // Routes are planned with an explicit port, so match them the same way
+            return httpHost.getPort() < 0 ? new HttpHost(httpHost.getSchemeName(), httpHost.getHostName(), 80) : httpHost;
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid downstream host: " + host, e);
+        }
+    }
+}
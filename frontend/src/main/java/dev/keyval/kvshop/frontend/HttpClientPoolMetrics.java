@@ -0,0 +1,52 @@
+package dev.keyval.kvshop.frontend;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+@Component
+public class HttpClientPoolMetrics implements MeterBinder {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final HttpClientProperties properties;
+
+    public HttpClientPoolMetrics(PoolingHttpClientConnectionManager connectionManager,
+                                 HttpClientProperties properties) {
+        this.connectionManager = connectionManager;
+        this.properties = properties;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        register(registry, "all", connectionManager::getTotalStats);
+
+        properties.getServices().forEach((name, service) -> {
+            if (service.getHost() != null) {
+                HttpRoute route = new HttpRoute(HttpClientConfig.targetHost(service.getHost()));
+                register(registry, name, () -> connectionManager.getStats(route));
+            }
+        });
+    }
+
+    private void register(MeterRegistry registry, String service, Supplier<PoolStats> stats) {
+        gauge(registry, "http.client.pool.leased", "Connections currently leased from the pool", service, stats, PoolStats::getLeased);
+        gauge(registry, "http.client.pool.available", "Idle keep-alive connections in the pool", service, stats, PoolStats::getAvailable);
+        gauge(registry, "http.client.pool.pending", "Requests waiting for a pooled connection", service, stats, PoolStats::getPending);
+        gauge(registry, "http.client.pool.max", "Maximum connections allowed", service, stats, PoolStats::getMax);
+    }
+
+    private void gauge(MeterRegistry registry, String name, String description, String service,
+                       Supplier<PoolStats> stats, ToDoubleFunction<PoolStats> value) {
+        Gauge.builder(name, () -> value.applyAsDouble(stats.get()))
+                .description(description)
+                .tag("service", service)
+                .register(registry);
+    }
+}
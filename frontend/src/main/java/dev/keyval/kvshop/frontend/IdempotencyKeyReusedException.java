@@ -0,0 +1,9 @@
+package dev.keyval.kvshop.frontend;
+
+// An idempotency key that was already used for a different cart
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+    public IdempotencyKeyReusedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,74 @@
+package dev.keyval.kvshop.frontend;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongFunction;
+
+/**
+ * Remembers checkouts by the client's idempotency key, so a retried request gets the original
+ * outcome instead of placing the order again. Retries that arrive while the first attempt is still
+ * running wait for it. A key is tied to one cart and one order id for as long as it is remembered:
+ * after a failed attempt the next retry runs again under the same order id, and inventory answers an
+ * order id it has already placed without placing it again, so an order that went through even though
+ * its caller saw an error isn't placed twice.
+ * The store is bounded in size and entries expire, so keys can't pile up.
+ */
+public class IdempotencyStore {
+
+    private final Cache<String, Entry> entries;
+    private final Counter executed;
+    private final Counter replayed;
+    private final Counter rejected;
+
+    public IdempotencyStore(long maximumSize, Duration ttl, MeterRegistry meterRegistry) {
+        this.entries = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttl).recordStats().<String, Entry>build(),
+                "idempotency");
+        this.executed = Counter.builder("idempotency.requests").tag("outcome", "executed").register(meterRegistry);
+        this.replayed = Counter.builder("idempotency.requests").tag("outcome", "replayed").register(meterRegistry);
+        this.rejected = Counter.builder("idempotency.requests").tag("outcome", "rejected").register(meterRegistry);
+    }
+
+    // fingerprint identifies the request body; the same key with a different one is rejected
+    public CompletableFuture<CheckoutResult> execute(String key, String fingerprint, LongFunction<CompletableFuture<CheckoutResult>> checkout) {
+        Entry entry = entries.get(key, ignored -> new Entry(fingerprint, UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE));
+        if (!entry.fingerprint.equals(fingerprint)) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(new IdempotencyKeyReusedException("Idempotency key " + key + " was used for a different cart"));
+        }
+        // Every caller gets its own copy, so one caller's timeout doesn't reach the others
+        return entry.run(checkout).copy();
+    }
+
+    private class Entry {
+        private final String fingerprint;
+        private final long orderId;
+        private CompletableFuture<CheckoutResult> result;
+
+        Entry(String fingerprint, long orderId) {
+            this.fingerprint = fingerprint;
+            this.orderId = orderId;
+        }
+
+        synchronized CompletableFuture<CheckoutResult> run(LongFunction<CompletableFuture<CheckoutResult>> checkout) {
+            if (result != null && !result.isCompletedExceptionally()) {
+                replayed.increment();
+                return result;
+            }
+            executed.increment();
+            try {
+                result = checkout.apply(orderId);
+            } catch (RuntimeException e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package dev.keyval.kvshop.frontend;
+
+public class InvalidCartException extends RuntimeException {
+
+    public InvalidCartException(String message) {
+        super(message);
+    }
+}
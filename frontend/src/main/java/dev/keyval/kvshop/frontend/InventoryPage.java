@@ -0,0 +1,29 @@
+package dev.keyval.kvshop.frontend;
+
+import java.util.List;
+
+public class InventoryPage {
+    private final List<Product> products;
+    private final String nextCursor;
+    private final String etag;
+
+    public InventoryPage(List<Product> products, String nextCursor, String etag) {
+        this.products = products;
+        this.nextCursor = nextCursor;
+        this.etag = etag;
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    // null on the last page
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    // Inventory's ETag for this page, null if it didn't send one
+    public String getEtag() {
+        return etag;
+    }
+}
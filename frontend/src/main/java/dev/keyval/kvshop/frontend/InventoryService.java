@@ -1,33 +1,101 @@
 package dev.keyval.kvshop.frontend;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class InventoryService {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    // When the frontend received the order, in epoch millis, so it can be stamped into the order event
+    public static final String ORDER_RECEIVED_AT_HEADER = "X-Order-Received-At";
+
     private final String inventoryServiceHost;
+    private final RestTemplate restTemplate;
+    // Last page seen per inventory URL, revalidated with If-None-Match instead of downloaded again
+    private final Cache<String, InventoryPage> pages;
 
-    public InventoryService(@Value("${INVENTORY_SERVICE_HOST}") String inventoryServiceHost) {
+    public InventoryService(@Value("${INVENTORY_SERVICE_HOST}") String inventoryServiceHost,
+                            @Value("${inventory.page-cache.maximum-size:1000}") long pageCacheSize,
+                            DownstreamClients downstreamClients) {
         this.inventoryServiceHost = inventoryServiceHost;
+        this.restTemplate = downstreamClients.restTemplate("inventory");
+        this.pages = Caffeine.newBuilder().maximumSize(pageCacheSize).build();
     }
 
     public List<Product> getInventory() {
+        return getInventory(null, null, null).getProducts();
+    }
+
+    // The products in the returned page are shared with other callers and must not be modified
+    public InventoryPage getInventory(String cursor, Integer limit, Collection<Integer> ids) {
+        UriComponentsBuilder uri = UriComponentsBuilder.fromHttpUrl("http://" + inventoryServiceHost + "/inventory");
+        if (ids != null) {
+            uri.queryParam("ids", ids.toArray());
+        }
+        if (cursor != null) {
+            uri.queryParam("cursor", cursor);
+        }
+        if (limit != null) {
+            uri.queryParam("limit", limit);
+        }
+        String url = uri.build().toUriString();
+
+        HttpHeaders headers = new HttpHeaders();
+        InventoryPage cached = pages.getIfPresent(url);
+        if (cached != null) {
+            headers.setIfNoneMatch(cached.getEtag());
+        }
         // Make http request to product service
-        RestTemplate restTemplate = new RestTemplate();
-        Product[] result = restTemplate.getForObject("http://" + inventoryServiceHost + "/inventory", Product[].class);
+        ResponseEntity<Product[]> response = restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), Product[].class);
+        if (cached != null && response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+            return cached;
+        }
 
-        // Convert result to list of products
-        return Arrays.asList(result);
+        InventoryPage page = new InventoryPage(
+                Arrays.asList(response.getBody()),
+                response.getHeaders().getFirst(NEXT_CURSOR_HEADER),
+                response.getHeaders().getETag());
+        if (page.getEtag() != null) {
+            pages.put(url, page);
+        }
+        return page;
     }
 
-    public void buy(int id) {
-        // Make http request to product service
-        RestTemplate restTemplate = new RestTemplate();
-        restTemplate.postForObject("http://" + inventoryServiceHost + "/buy?id=" + id, null, Void.class);
+    public void buy(int id, double price, long receivedAtMillis) {
+        // Make http request to product service; the price goes into the published order event
+        restTemplate.postForObject("http://" + inventoryServiceHost + "/buy?id=" + id + "&price=" + price + "&currency=USD",
+                new HttpEntity<>(orderHeaders(receivedAtMillis)), Void.class);
+    }
+
+    // One request for the whole cart, which inventory reserves and publishes as a single order
+    public void checkout(long orderId, List<CartItem> items, Map<Integer, Double> prices, long receivedAtMillis) {
+        List<Map<String, Object>> lines = new ArrayList<>(items.size());
+        for (CartItem item : items) {
+            lines.add(Map.of("id", item.getId(), "quantity", item.getQuantity(), "price", prices.get(item.getId())));
+        }
+        restTemplate.postForObject("http://" + inventoryServiceHost + "/checkout",
+                new HttpEntity<>(Map.of("orderId", orderId, "currency", "USD", "items", lines), orderHeaders(receivedAtMillis)), Void.class);
+    }
+
+    private static HttpHeaders orderHeaders(long receivedAtMillis) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(ORDER_RECEIVED_AT_HEADER, String.valueOf(receivedAtMillis));
+        return headers;
     }
 }
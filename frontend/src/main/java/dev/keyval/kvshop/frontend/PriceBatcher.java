@@ -0,0 +1,112 @@
+package dev.keyval.kvshop.frontend;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Coalesces concurrent single-id price lookups into bulk requests.
+ * A batch is sent when it reaches {@code maxBatchSize} ids or when the
+ * collection window of the first queued id expires, whichever comes first.
+ * The loader only starts a request, so the scheduler is free to run the
+ * collection timers while batches are in flight.
+ */
+public class PriceBatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(PriceBatcher.class);
+
+    private final Function<List<Integer>, CompletableFuture<Map<Integer, Double>>> loader;
+    private final ScheduledExecutorService scheduler;
+    private final int maxBatchSize;
+    private final long windowMillis;
+
+    private final Object lock = new Object();
+    private Map<Integer, CompletableFuture<Double>> pending = new HashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    public PriceBatcher(Function<List<Integer>, CompletableFuture<Map<Integer, Double>>> loader,
+                        ScheduledExecutorService scheduler,
+                        int maxBatchSize,
+                        long windowMillis) {
+        this.loader = loader;
+        this.scheduler = scheduler;
+        this.maxBatchSize = maxBatchSize;
+        this.windowMillis = windowMillis;
+    }
+
+    public CompletableFuture<Double> submit(int id) {
+        CompletableFuture<Double> future;
+        Map<Integer, CompletableFuture<Double>> full = null;
+        synchronized (lock) {
+            future = pending.computeIfAbsent(id, key -> new CompletableFuture<>());
+            if (pending.size() >= maxBatchSize) {
+                full = drain();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            load(full);
+        }
+        // Callers of the same id share one lookup, so hand out copies they can time out independently
+        return future.copy();
+    }
+
+    private void flush() {
+        Map<Integer, CompletableFuture<Double>> batch;
+        synchronized (lock) {
+            scheduledFlush = null;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = drain();
+        }
+        load(batch);
+    }
+
+    // Must be called while holding the lock
+    private Map<Integer, CompletableFuture<Double>> drain() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        Map<Integer, CompletableFuture<Double>> batch = pending;
+        pending = new HashMap<>();
+        return batch;
+    }
+
+    private void load(Map<Integer, CompletableFuture<Double>> batch) {
+        CompletableFuture<Map<Integer, Double>> loaded;
+        try {
+            loaded = loader.apply(new ArrayList<>(batch.keySet()));
+        } catch (RuntimeException e) {
+            loaded = CompletableFuture.failedFuture(e);
+        }
+        loaded.whenComplete((prices, exception) -> {
+            if (exception != null) {
+                Throwable cause = exception instanceof CompletionException && exception.getCause() != null ? exception.getCause() : exception;
+                log.error("Failed to fetch price batch of {} ids", batch.size(), cause);
+                batch.values().forEach(future -> future.completeExceptionally(cause));
+                return;
+            }
+            batch.forEach((id, future) -> {
+                Double price = prices.get(id);
+                if (price != null) {
+                    future.complete(price);
+                } else {
+                    future.completeExceptionally(new IllegalStateException("Pricing service returned no price for id " + id));
+                }
+            });
+        });
+    }
+}
@@ -1,24 +1,176 @@
 package dev.keyval.kvshop.frontend;
 
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+
 @Service
 public class PricingService {
 
     private final String pricingServiceHost;
+    private final RestTemplate restTemplate;
+    private final ScheduledExecutorService batchScheduler;
+    private final PriceBatcher batcher;
+    private final AsyncLoadingCache<Integer, Double> priceCache;
+    private final DownstreamGuard pricingGuard;
 
     @Autowired
-    public PricingService(@Value("${PRICING_SERVICE_HOST}") String pricingServiceHost) {
+    public PricingService(@Value("${PRICING_SERVICE_HOST}") String pricingServiceHost,
+                          @Value("${pricing.batch.max-size:50}") int maxBatchSize,
+                          @Value("${pricing.batch.window-ms:2}") long batchWindowMillis,
+                          @Value("${pricing.batch.threads:1}") int batchThreads,
+                          @Value("${pricing.cache.maximum-size:10000}") long cacheMaximumSize,
+                          @Value("${pricing.cache.ttl:30s}") Duration cacheTtl,
+                          @Value("${pricing.cache.refresh-after:}") Duration cacheRefreshAfter,
+                          DownstreamClients downstreamClients,
+                          DownstreamGuards downstreamGuards,
+                          MeterRegistry meterRegistry) {
         this.pricingServiceHost = pricingServiceHost;
+        this.restTemplate = downstreamClients.restTemplate("pricing");
+        this.pricingGuard = downstreamGuards.guard("pricing");
+        // Only runs the batches' collection timers; requests run on the pricing guard's executor
+        this.batchScheduler = Executors.newScheduledThreadPool(batchThreads);
+        this.batcher = new PriceBatcher(this::fetchPrices, batchScheduler, maxBatchSize, batchWindowMillis);
+
+        Caffeine<Object, Object> cacheBuilder = Caffeine.newBuilder()
+                .maximumSize(cacheMaximumSize)
+                .expireAfterWrite(cacheTtl)
+                .recordStats();
+        if (cacheRefreshAfter != null) {
+            // Stale-while-revalidate: entries older than this are served while a background reload runs
+            cacheBuilder.refreshAfterWrite(cacheRefreshAfter);
+        }
+        this.priceCache = CaffeineCacheMetrics.monitor(meterRegistry, cacheBuilder.buildAsync(new PriceLoader()), "prices");
     }
 
     public double getPrice(int id) {
-        // Make http request to pricing service
-        RestTemplate restTemplate = new RestTemplate();
-        PriceResult priceResult = restTemplate.getForObject("http://" + pricingServiceHost + "/price?id=" + id, PriceResult.class);
-        return priceResult.getPrice();
+        return join(getPriceAsync(id));
+    }
+
+    public CompletableFuture<Double> getPriceAsync(int id) {
+        return getPriceAsync(id, false);
+    }
+
+    public CompletableFuture<Double> getPriceAsync(int id, boolean fresh) {
+        if (fresh) {
+            // Skip the cache but keep it up to date with what we just read
+            return batcher.submit(id).thenApply(price -> {
+                priceCache.put(id, CompletableFuture.completedFuture(price));
+                return price;
+            });
+        }
+        // The cache hands the same future to every caller, so give each caller its own copy
+        return priceCache.get(id).copy();
+    }
+
+    public Map<Integer, Double> getPrices(Collection<Integer> ids) {
+        return join(getPricesAsync(ids));
+    }
+
+    public CompletableFuture<Map<Integer, Double>> getPricesAsync(Collection<Integer> ids) {
+        return getPricesAsync(ids, false);
+    }
+
+    public CompletableFuture<Map<Integer, Double>> getPricesAsync(Collection<Integer> ids, boolean fresh) {
+        if (!fresh) {
+            return priceCache.getAll(ids);
+        }
+        // Submitted together, so the batcher turns them into as few /prices requests as it can
+        Map<Integer, CompletableFuture<Double>> futures = new HashMap<>();
+        for (Integer id : ids) {
+            futures.put(id, getPriceAsync(id, true));
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> {
+                    Map<Integer, Double> prices = new HashMap<>();
+                    futures.forEach((id, future) -> prices.put(id, future.join()));
+                    return prices;
+                });
+    }
+
+    public void invalidate(int id) {
+        priceCache.synchronous().invalidate(id);
+    }
+
+    public void invalidateAll() {
+        priceCache.synchronous().invalidateAll();
+    }
+
+    // The request goes through the pricing guard, which runs it on its own executor and hedges slow ones
+    private CompletableFuture<Map<Integer, Double>> fetchPrices(List<Integer> ids) {
+        return pricingGuard.hedged(() -> requestPrices(ids));
+    }
+
+    private Map<Integer, Double> requestPrices(List<Integer> ids) {
+        // Make one bulk http request to pricing service
+        String idsParam = ids.stream().map(String::valueOf).collect(Collectors.joining(","));
+        PriceResult[] results = restTemplate.getForObject("http://" + pricingServiceHost + "/prices?ids=" + idsParam, PriceResult[].class);
+
+        Map<Integer, Double> prices = new HashMap<>();
+        if (results != null) {
+            for (PriceResult result : results) {
+                prices.put(result.getId(), result.getPrice());
+            }
+        }
+        return prices;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        batchScheduler.shutdown();
+    }
+
+    // Cache misses (single, bulk and background refreshes) all go through the batcher
+    private class PriceLoader implements AsyncCacheLoader<Integer, Double> {
+
+        @Override
+        public CompletableFuture<Double> asyncLoad(Integer id, Executor executor) {
+            return batcher.submit(id);
+        }
+
+        @Override
+        public CompletableFuture<Map<Integer, Double>> asyncLoadAll(Set<? extends Integer> ids, Executor executor) {
+            Map<Integer, CompletableFuture<Double>> futures = new HashMap<>();
+            for (Integer id : ids) {
+                futures.put(id, batcher.submit(id));
+            }
+            return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0]))
+                    .thenApply(ignored -> {
+                        Map<Integer, Double> prices = new HashMap<>();
+                        futures.forEach((id, future) -> prices.put(id, future.join()));
+                        return prices;
+                    });
+        }
     }
 }
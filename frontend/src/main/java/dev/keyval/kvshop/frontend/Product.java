@@ -1,53 +1,39 @@
 package dev.keyval.kvshop.frontend;
 
-public class Product {
-    private int id;
-    private String name;
-    private double price;
-    private String image;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
-    public Product() {
-        this.id = 0;
-        this.name = "";
-        this.price = 0.0;
-        this.image = "";
-    }
-    public Product(int id, String name, double price, String image) {
+// Immutable, so one instance can be shared by every request that reads the catalog; a priced product is a new one
+public class Product {
+    private final int id;
+    private final String name;
+    private final double price;
+    private final String image;
+
+    @JsonCreator
+    public Product(@JsonProperty("id") int id,
+                   @JsonProperty("name") String name,
+                   @JsonProperty("price") double price,
+                   @JsonProperty("image") String image) {
         this.id = id;
-        this.name = name;
+        this.name = name == null ? "" : name;
         this.price = price;
-        this.image = image;
+        this.image = image == null ? "" : image;
     }
 
     public int getId() {
         return id;
     }
 
-    public void setId(int id) {
-        this.id = id;
-    }
-
     public String getName() {
         return name;
     }
 
-    public void setName(String name) {
-        this.name = name;
-    }
-
     public double getPrice() {
         return price;
     }
 
-    public void setPrice(double price) {
-        this.price = price;
-    }
-
     public String getImage() {
         return image;
     }
-
-    public void setImage(String image) {
-        this.image = image;
-    }
 }
@@ -1,106 +1,304 @@
 package dev.keyval.kvshop.frontend;
 
-import io.reactivex.rxjava3.core.Observable;
-import io.reactivex.rxjava3.schedulers.Schedulers;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
 @RestController
 public class ProductController {
 
+    private static final Logger log = LoggerFactory.getLogger(ProductController.class);
+
     private final InventoryService inventoryService;
     private final PricingService pricingService;
-    private final CurrencyService currencyService;
+    private final CurrencyRateProvider currencyRateProvider;
     private final CouponService couponService;
     private final AdsService adsService;
-    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+    private final CheckoutService checkoutService;
+    private final CatalogReplica catalogReplica;
+    private final DownstreamGuard inventoryGuard;
+    private final DownstreamGuard couponGuard;
+    private final DownstreamGuard adsGuard;
+    private final Duration requestDeadline;
+    // Concurrent /products requests with the same parameters share one call to each of these
+    private final SingleFlight<String, InventoryPage> inventoryFlight;
+    private final SingleFlight<String, CouponResult> couponsFlight;
+    private final SingleFlight<String, List<Ad>> adsFlight;
+    private final ObjectMapper objectMapper;
+    private final int streamPageSize;
+    private final Duration streamTimeout;
 
     @Autowired
     public ProductController(
             InventoryService inventoryService,
             PricingService pricingService,
-            CurrencyService currencyService,
+            CurrencyRateProvider currencyRateProvider,
             CouponService couponService,
-            AdsService adsService) {
+            AdsService adsService,
+            CheckoutService checkoutService,
+            CatalogReplica catalogReplica,
+            DownstreamGuards downstreamGuards,
+            @Value("${frontend.request-deadline:5s}") Duration requestDeadline,
+            @Value("${frontend.single-flight.timeout:2s}") Duration singleFlightTimeout,
+            @Value("${frontend.stream.page-size:100}") int streamPageSize,
+            @Value("${frontend.stream.timeout:60s}") Duration streamTimeout,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
         this.inventoryService = inventoryService;
         this.pricingService = pricingService;
-        this.currencyService = currencyService;
+        this.currencyRateProvider = currencyRateProvider;
         this.couponService = couponService;
         this.adsService = adsService;
+        this.checkoutService = checkoutService;
+        this.catalogReplica = catalogReplica;
+        this.inventoryGuard = downstreamGuards.guard("inventory");
+        this.couponGuard = downstreamGuards.guard("coupon");
+        this.adsGuard = downstreamGuards.guard("ads");
+        this.requestDeadline = requestDeadline;
+        this.inventoryFlight = new SingleFlight<>("inventory", singleFlightTimeout, meterRegistry);
+        this.couponsFlight = new SingleFlight<>("coupons", singleFlightTimeout, meterRegistry);
+        this.adsFlight = new SingleFlight<>("ads", singleFlightTimeout, meterRegistry);
+        this.streamPageSize = streamPageSize;
+        this.streamTimeout = streamTimeout;
+        this.objectMapper = objectMapper;
     }
 
-    @CrossOrigin(origins = "*")
+    // cursor and limit page through the catalog (the next cursor comes back in X-Next-Cursor), ids restricts it
+    @CrossOrigin(origins = "*", exposedHeaders = {HttpHeaders.ETAG, InventoryService.NEXT_CURSOR_HEADER})
     @GetMapping("/products")
-    public List<Product> getProducts() {
-        CompletableFuture<List<Product>> productsFuture = CompletableFuture.supplyAsync(inventoryService::getInventory);
-        List<Product> products;
-        try {
-            products = productsFuture.get();
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException(e);
-        }
+    public CompletableFuture<ResponseEntity<List<Product>>> getProducts(@RequestParam(required = false) String cursor,
+                                                                        @RequestParam(required = false) Integer limit,
+                                                                        @RequestParam(required = false) List<Integer> ids) {
+        RequestDeadline deadline = RequestDeadline.after(requestDeadline);
 
-        List<Callable<Product>> pricedProducts = products
-                .stream()
-                .map(product -> (Callable<Product>) () -> {
-                    product.setPrice(pricingService.getPrice(product.getId()));
-                    return product;
-                }).toList();
-
-        List<Future<Product>> pricedProductsFutures;
-        try {
-            pricedProductsFutures = executorService.invokeAll(pricedProducts);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
+        // Products (from the local catalog, or inventory until there is one) then pricing, while coupons and ads are
+        // fetched alongside. The page can't be shown without products and prices, but it can do without coupons
+        // and ads, which fall back to the last ones seen
+        CompletableFuture<InventoryPage> pageFuture = inventoryPage(cursor, limit, ids, deadline);
+        CompletableFuture<List<Product>> productsFuture = pageFuture
+                .thenCompose(page -> deadline.bound(pricingService.getPricesAsync(page.getProducts().stream().map(Product::getId).toList()))
+                        .thenApply(prices -> applyPrices(page.getProducts(), prices)));
+        CompletableFuture<CouponResult> couponsFuture = coupons(deadline);
+        CompletableFuture<List<Ad>> adsFuture = ads(deadline);
+
+        return CompletableFuture.allOf(productsFuture, couponsFuture, adsFuture).thenApply(ignored -> {
+            if (log.isDebugEnabled()) {
+                for (Ad ad : adsFuture.join()) {
+                    log.debug("Ad: {} - {}", ad.getTitle(), ad.getDescription());
+                }
+            }
+            InventoryPage page = pageFuture.join();
+            List<Product> products = productsFuture.join();
 
-        products = pricedProductsFutures.stream().map(future -> {
-            try {
-                return future.get();
-            } catch (InterruptedException | ExecutionException e) {
-                throw new RuntimeException(e);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (page.getNextCursor() != null) {
+                response.header(InventoryService.NEXT_CURSOR_HEADER, page.getNextCursor());
             }
-        }).toList();
+            if (page.getEtag() != null) {
+                // Spring answers a matching If-None-Match with 304 before anything is serialized
+                response.eTag(productsEtag(page.getEtag(), products));
+            }
+            return response.body(products);
+        });
+    }
 
-        // Get coupons
-        this.couponService.getCoupons();
+    // Streaming variants of /products, picked by the Accept header. Each product is written as soon as its price
+    // is known and ads and coupons follow in a trailer. The catalog is walked a page at a time, so only one page
+    // is ever held in memory however large it gets
+    @CrossOrigin(origins = "*")
+    @GetMapping(value = "/products", produces = "application/x-ndjson")
+    public ResponseEntity<ResponseBodyEmitter> streamProducts(@RequestParam(required = false) List<Integer> ids) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(streamTimeout.toMillis());
+        streamProducts(ids, ProductStreamSink.ndjson(emitter, objectMapper));
+        return ResponseEntity.ok().contentType(ProductStreamSink.NDJSON).body(emitter);
+    }
 
-        // Get ads
-        List<Ad> ads = this.adsService.getads();
-        for (Ad ad : ads) {
-            System.out.println("Ad: " + ad.getTitle() + " - " + ad.getDescription());
+    @CrossOrigin(origins = "*")
+    @GetMapping(value = "/products", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamProductEvents(@RequestParam(required = false) List<Integer> ids) {
+        SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+        streamProducts(ids, ProductStreamSink.sse(emitter));
+        return emitter;
+    }
+
+    private void streamProducts(List<Integer> ids, ProductStreamSink sink) {
+        // Ads and coupons are only needed for the trailer, so they have the whole first page's budget to arrive
+        RequestDeadline deadline = RequestDeadline.after(requestDeadline);
+        CompletableFuture<CouponResult> couponsFuture = coupons(deadline);
+        CompletableFuture<List<Ad>> adsFuture = ads(deadline);
+        streamPage(null, ids, sink, couponsFuture, adsFuture);
+    }
+
+    // Each page gets its own deadline; the emitter's timeout caps the stream as a whole
+    private void streamPage(String cursor, List<Integer> ids, ProductStreamSink sink,
+                            CompletableFuture<CouponResult> couponsFuture, CompletableFuture<List<Ad>> adsFuture) {
+        RequestDeadline deadline = RequestDeadline.after(requestDeadline);
+        inventoryPage(cursor, streamPageSize, ids, deadline)
+                .thenCompose(page -> {
+                    List<CompletableFuture<Void>> sent = new ArrayList<>(page.getProducts().size());
+                    for (Product product : page.getProducts()) {
+                        sent.add(deadline.bound(pricingService.getPriceAsync(product.getId())).handle((price, error) -> {
+                            if (error == null) {
+                                sink.product(new Product(product.getId(), product.getName(), price, product.getImage()));
+                            } else {
+                                sink.unpriced();
+                            }
+                            return null;
+                        }));
+                    }
+                    return CompletableFuture.allOf(sent.toArray(new CompletableFuture[0])).thenApply(ignored -> page.getNextCursor());
+                })
+                .whenComplete((nextCursor, error) -> {
+                    if (error != null) {
+                        log.warn("Stopped streaming products: {}", error.toString());
+                        finishStream(sink, couponsFuture, adsFuture, "Inventory unavailable");
+                    } else if (nextCursor == null || sink.isClosed()) {
+                        finishStream(sink, couponsFuture, adsFuture, null);
+                    } else {
+                        streamPage(nextCursor, ids, sink, couponsFuture, adsFuture);
+                    }
+                });
+    }
+
+    private static void finishStream(ProductStreamSink sink, CompletableFuture<CouponResult> couponsFuture,
+                                     CompletableFuture<List<Ad>> adsFuture, String error) {
+        CompletableFuture.allOf(couponsFuture, adsFuture).whenComplete((ignored, failure) -> sink.finish(
+                couponsFuture.isCompletedExceptionally() ? null : couponsFuture.join(),
+                adsFuture.isCompletedExceptionally() ? null : adsFuture.join(),
+                error));
+    }
+
+    private CompletableFuture<InventoryPage> inventoryPage(String cursor, Integer limit, List<Integer> ids, RequestDeadline deadline) {
+        InventoryPage local = catalogReplica.page(ids, cursor, limit);
+        if (local != null) {
+            return CompletableFuture.completedFuture(local);
         }
+        return deadline.bound(inventoryFlight.execute(cursor + "|" + limit + "|" + ids,
+                () -> inventoryGuard.hedged(() -> inventoryService.getInventory(cursor, limit, ids))));
+    }
 
-        return products;
+    private CompletableFuture<CouponResult> coupons(RequestDeadline deadline) {
+        return couponGuard.withFallback(
+                deadline.bound(couponsFlight.execute("coupons", () -> couponGuard.call(couponService::getCoupons))), couponService::lastKnownCoupons);
     }
 
-    private Observable<Double> pricObservable(int id) {
-        return Observable.create(emitter -> {
-            double price = pricingService.getPrice(id);
-            System.out.println("Price for product with id " + id + " is $" + price);
-            emitter.onNext(price);
-            emitter.onComplete();
-        });
+    private CompletableFuture<List<Ad>> ads(RequestDeadline deadline) {
+        return adsGuard.withFallback(
+                deadline.bound(adsFlight.execute("ads", () -> adsGuard.call(adsService::getads))), adsService::lastKnownAds);
+    }
+
+    // Catalog products are shared between requests, so each priced product is a new one
+    private List<Product> applyPrices(List<Product> products, Map<Integer, Double> prices) {
+        List<Product> priced = new ArrayList<>(products.size());
+        for (Product product : products) {
+            Double price = prices.get(product.getId());
+            if (price == null) {
+                throw new IllegalStateException("Pricing service returned no price for product " + product.getId());
+            }
+            priced.add(new Product(product.getId(), product.getName(), price, product.getImage()));
+        }
+        return priced;
+    }
+
+    // The inventory page's version combined with the prices that were applied to it
+    private static String productsEtag(String inventoryEtag, List<Product> products) {
+        long hash = inventoryEtag.hashCode();
+        for (Product product : products) {
+            hash = 31 * hash + Double.hashCode(product.getPrice());
+        }
+        return "\"" + Long.toHexString(hash) + "\"";
     }
 
     @CrossOrigin(origins = "*")
     @PostMapping("/buy")
-    public void buyProduct(@RequestParam(name = "id") int id) {
-        // Validate price via pricing service
-        double price = pricObservable(id).subscribeOn(Schedulers.io()).blockingFirst();
-        int conversionRate = currencyService.getConversionRate("usd-eur");
+    public CompletableFuture<Void> buyProduct(@RequestParam(name = "id") int id) {
+        long receivedAtMillis = System.currentTimeMillis();
+        RequestDeadline deadline = RequestDeadline.after(requestDeadline);
+
+        // Validate a fresh (uncached) price via pricing service; the conversion rate is served from memory
+        CompletableFuture<Double> priceFuture = deadline.bound(pricingService.getPriceAsync(id, true));
+        CompletableFuture<Integer> rateFuture = deadline.bound(currencyRateProvider.getConversionRateAsync("usd-eur"));
+
+        return priceFuture.thenCombine(rateFuture, (price, conversionRate) -> {
+                    log.debug("Buying product with id {} for ${} USD (converted to €{} EUR)", id, price, price * conversionRate);
+                    return price;
+                })
+                // Call inventory service to buy product, then apply coupon. The purchase has gone through by then,
+                // so a coupon that can't be applied doesn't fail it
+                .thenCompose(price -> deadline.bound(inventoryGuard.call(() -> {
+                    this.inventoryService.buy(id, price, receivedAtMillis);
+                    return null;
+                })))
+                .thenCompose(ignored -> couponGuard.withFallback(
+                        deadline.bound(couponGuard.call(this.couponService::applyCoupon)), () -> null))
+                .thenApply(ignored -> null);
+    }
+
+    // Places a whole cart as one order. Retries with the same Idempotency-Key get the first attempt's result
+    @CrossOrigin(origins = "*")
+    @PostMapping("/checkout")
+    public CompletableFuture<CheckoutResult> checkout(@RequestHeader("Idempotency-Key") String idempotencyKey,
+                                                      @RequestBody Cart cart) {
+        return checkoutService.checkout(idempotencyKey, cart, RequestDeadline.after(requestDeadline));
+    }
+
+    @ExceptionHandler(TimeoutException.class)
+    @ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+    public String handleTimeout(TimeoutException e) {
+        return "Request deadline of " + requestDeadline.toMillis() + "ms exceeded";
+    }
 
-        String usdPrice = ("$" + price + " USD");
-        String eurPrice = ("ִ€" + (price * conversionRate) + " EUR");
-        System.out.println("Buying product with id " + id + " for " + usdPrice + " (converted to ִִִ" + eurPrice + ")");
+    @ExceptionHandler(DownstreamUnavailableException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public String handleUnavailable(DownstreamUnavailableException e) {
+        return e.getMessage();
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public String handleRejected(RejectedExecutionException e) {
+        return "Too many concurrent downstream calls";
+    }
 
-        // Call inventory service to buy product
-        this.inventoryService.buy(id);
+    // Inventory refuses purchases of products that are out of stock
+    @ExceptionHandler(HttpClientErrorException.Conflict.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public String handleOutOfStock(HttpClientErrorException.Conflict e) {
+        return e.getResponseBodyAsString();
+    }
+
+    @ExceptionHandler(HttpClientErrorException.NotFound.class)
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    public String handleUnknownProduct(HttpClientErrorException.NotFound e) {
+        return e.getResponseBodyAsString();
+    }
+
+    @ExceptionHandler(InvalidCartException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String handleInvalidCart(InvalidCartException e) {
+        return e.getMessage();
+    }
 
-        // Apply coupon
-        this.couponService.applyCoupon();
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    @ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+    public String handleIdempotencyKeyReused(IdempotencyKeyReusedException e) {
+        return e.getMessage();
     }
 }
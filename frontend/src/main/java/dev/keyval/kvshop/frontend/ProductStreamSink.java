@@ -0,0 +1,97 @@
+package dev.keyval.kvshop.frontend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Writes a streamed /products response, as NDJSON or as server-sent events. Products arrive from
+// several threads at once; every element goes out in a single send so they can't interleave
+public abstract class ProductStreamSink {
+
+    public static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final AtomicInteger sent = new AtomicInteger();
+    private final AtomicInteger unpriced = new AtomicInteger();
+    private volatile boolean closed;
+
+    public static ProductStreamSink ndjson(ResponseBodyEmitter emitter, ObjectMapper objectMapper) {
+        return new ProductStreamSink() {
+            @Override
+            protected void sendProduct(Product product) throws IOException {
+                emitter.send(line(product), NDJSON);
+            }
+
+            @Override
+            protected void sendTrailer(ProductStreamTrailer trailer) throws IOException {
+                emitter.send(line(Map.of("trailer", trailer)), NDJSON);
+                emitter.complete();
+            }
+
+            private byte[] line(Object value) throws IOException {
+                byte[] json = objectMapper.writeValueAsBytes(value);
+                byte[] line = new byte[json.length + 1];
+                System.arraycopy(json, 0, line, 0, json.length);
+                line[json.length] = '\n';
+                return line;
+            }
+        };
+    }
+
+    public static ProductStreamSink sse(SseEmitter emitter) {
+        return new ProductStreamSink() {
+            @Override
+            protected void sendProduct(Product product) throws IOException {
+                emitter.send(SseEmitter.event().name("product").data(product, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            protected void sendTrailer(ProductStreamTrailer trailer) throws IOException {
+                emitter.send(SseEmitter.event().name("trailer").data(trailer, MediaType.APPLICATION_JSON));
+                emitter.complete();
+            }
+        };
+    }
+
+    protected abstract void sendProduct(Product product) throws IOException;
+
+    protected abstract void sendTrailer(ProductStreamTrailer trailer) throws IOException;
+
+    public void product(Product product) {
+        if (closed) {
+            return;
+        }
+        try {
+            sendProduct(product);
+            sent.incrementAndGet();
+        } catch (IOException | IllegalStateException e) {
+            // The client went away or the emitter timed out; stop producing
+            closed = true;
+        }
+    }
+
+    public void unpriced() {
+        unpriced.incrementAndGet();
+    }
+
+    public void finish(CouponResult coupons, List<Ad> ads, String error) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            sendTrailer(new ProductStreamTrailer(sent.get(), unpriced.get(), coupons, ads, error));
+        } catch (IOException | IllegalStateException e) {
+            // Nobody left to tell
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,43 @@
+package dev.keyval.kvshop.frontend;
+
+import java.util.List;
+
+// Last element of a streamed /products response
+public class ProductStreamTrailer {
+    private final int products;
+    private final int unpriced;
+    private final CouponResult coupons;
+    private final List<Ad> ads;
+    private final String error;
+
+    public ProductStreamTrailer(int products, int unpriced, CouponResult coupons, List<Ad> ads, String error) {
+        this.products = products;
+        this.unpriced = unpriced;
+        this.coupons = coupons;
+        this.ads = ads;
+        this.error = error;
+    }
+
+    // Products sent before the trailer
+    public int getProducts() {
+        return products;
+    }
+
+    // Products left out because their price couldn't be fetched in time
+    public int getUnpriced() {
+        return unpriced;
+    }
+
+    public CouponResult getCoupons() {
+        return coupons;
+    }
+
+    public List<Ad> getAds() {
+        return ads;
+    }
+
+    // Set when the stream ended early, e.g. because inventory couldn't be reached
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,27 @@
+package dev.keyval.kvshop.frontend;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class RequestDeadline {
+
+    private final long deadlineNanos;
+
+    private RequestDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static RequestDeadline after(Duration timeout) {
+        return new RequestDeadline(System.nanoTime() + timeout.toNanos());
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    // Fails the stage with a TimeoutException once the request's time budget is spent
+    public <T> CompletableFuture<T> bound(CompletableFuture<T> stage) {
+        return stage.orTimeout(remainingMillis(), TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,126 @@
+package dev.keyval.kvshop.frontend;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@ConfigurationProperties(prefix = "resilience")
+public class ResilienceProperties {
+
+    // Per-service policies, keyed by service name (inventory, pricing, ...)
+    private Map<String, Policy> services = new HashMap<>();
+
+    public Map<String, Policy> getServices() {
+        return services;
+    }
+
+    public void setServices(Map<String, Policy> services) {
+        this.services = services;
+    }
+
+    public Policy getService(String name) {
+        return services.getOrDefault(name, new Policy());
+    }
+
+    public static class Policy {
+        // Circuit breaker: opens when failure-rate-threshold percent of the last sliding-window-size calls
+        // failed (once at least minimum-calls were made), and lets half-open-calls through after open-duration
+        private int failureRateThreshold = 50;
+        private int slidingWindowSize = 20;
+        private int minimumCalls = 10;
+        private Duration openDuration = Duration.ofSeconds(10);
+        private int halfOpenCalls = 3;
+
+        // Bulkhead: calls in flight at once, beyond which calls are rejected instead of queued
+        private int maxConcurrentCalls = 50;
+
+        // Hedging, for idempotent reads only: a second attempt goes out once the first has taken longer than
+        // the service's p95, kept between the min and max delay (default-delay until there is a p95)
+        private boolean hedge = false;
+        private Duration hedgeMinDelay = Duration.ofMillis(5);
+        private Duration hedgeMaxDelay = Duration.ofMillis(500);
+        private Duration hedgeDefaultDelay = Duration.ofMillis(50);
+
+        public int getFailureRateThreshold() {
+            return failureRateThreshold;
+        }
+
+        public void setFailureRateThreshold(int failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+        }
+
+        public int getSlidingWindowSize() {
+            return slidingWindowSize;
+        }
+
+        public void setSlidingWindowSize(int slidingWindowSize) {
+            this.slidingWindowSize = slidingWindowSize;
+        }
+
+        public int getMinimumCalls() {
+            return minimumCalls;
+        }
+
+        public void setMinimumCalls(int minimumCalls) {
+            this.minimumCalls = minimumCalls;
+        }
+
+        public Duration getOpenDuration() {
+            return openDuration;
+        }
+
+        public void setOpenDuration(Duration openDuration) {
+            this.openDuration = openDuration;
+        }
+
+        public int getHalfOpenCalls() {
+            return halfOpenCalls;
+        }
+
+        public void setHalfOpenCalls(int halfOpenCalls) {
+            this.halfOpenCalls = halfOpenCalls;
+        }
+
+        public int getMaxConcurrentCalls() {
+            return maxConcurrentCalls;
+        }
+
+        public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+            this.maxConcurrentCalls = maxConcurrentCalls;
+        }
+
+        public boolean isHedge() {
+            return hedge;
+        }
+
+        public void setHedge(boolean hedge) {
+            this.hedge = hedge;
+        }
+
+        public Duration getHedgeMinDelay() {
+            return hedgeMinDelay;
+        }
+
+        public void setHedgeMinDelay(Duration hedgeMinDelay) {
+            this.hedgeMinDelay = hedgeMinDelay;
+        }
+
+        public Duration getHedgeMaxDelay() {
+            return hedgeMaxDelay;
+        }
+
+        public void setHedgeMaxDelay(Duration hedgeMaxDelay) {
+            this.hedgeMaxDelay = hedgeMaxDelay;
+        }
+
+        public Duration getHedgeDefaultDelay() {
+            return hedgeDefaultDelay;
+        }
+
+        public void setHedgeDefaultDelay(Duration hedgeDefaultDelay) {
+            this.hedgeDefaultDelay = hedgeDefaultDelay;
+        }
+    }
+}
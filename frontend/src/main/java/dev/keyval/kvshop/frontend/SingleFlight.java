@@ -0,0 +1,64 @@
+package dev.keyval.kvshop.frontend;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Shares one in-flight call between concurrent callers asking for the same key.
+ * Nothing is kept once a call completes, so callers never see a result that was
+ * finished before they asked. A call that takes longer than the timeout fails for
+ * everyone waiting on it and the next caller starts a fresh one. The timeout completes
+ * the call's own future, so a guarded call is cancelled rather than left running.
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final long timeoutMillis;
+    private final Counter leaders;
+    private final Counter followers;
+
+    public SingleFlight(String name, Duration timeout, MeterRegistry meterRegistry) {
+        this.timeoutMillis = timeout.toMillis();
+        // followers / (leaders + followers) is the share of calls that were collapsed
+        this.leaders = Counter.builder("singleflight.calls").tag("name", name).tag("role", "leader").register(meterRegistry);
+        this.followers = Counter.builder("singleflight.calls").tag("name", name).tag("role", "follower").register(meterRegistry);
+        Gauge.builder("singleflight.in-flight", inFlight::size).tag("name", name).register(meterRegistry);
+    }
+
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> shared = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, shared);
+        if (existing != null) {
+            followers.increment();
+            // Every caller gets its own copy, so one caller's timeout or cancellation doesn't reach the others
+            return existing.copy();
+        }
+        leaders.increment();
+
+        CompletableFuture<V> upstream;
+        try {
+            upstream = call.get();
+        } catch (RuntimeException e) {
+            upstream = CompletableFuture.failedFuture(e);
+        }
+        upstream.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((value, exception) -> {
+                    // Leave the map before completing, so anyone asking from now on starts a new call
+                    inFlight.remove(key, shared);
+                    if (exception != null) {
+                        shared.completeExceptionally(exception);
+                    } else {
+                        shared.complete(value);
+                    }
+                });
+        return shared.copy();
+    }
+}
@@ -0,0 +1,86 @@
+package dev.keyval.kvshop.frontend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CatalogReplicaTest {
+
+    private static final String TOPIC = "catalog";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+
+    private final MockConsumer<String, byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    private CatalogReplica replica;
+
+    @AfterEach
+    void tearDown() {
+        if (replica != null) {
+            replica.shutdown();
+        }
+    }
+
+    @Test
+    void emptyTopicLeavesRequestsToInventory() throws Exception {
+        topicWithEndOffset(0);
+        replica = new CatalogReplica(TOPIC, 1000, new ObjectMapper(), new SimpleMeterRegistry(), () -> consumer);
+
+        // Long enough for the replica to have read the whole (empty) topic many times over
+        TimeUnit.MILLISECONDS.sleep(300);
+        assertThat(replica.current()).isNull();
+        assertThat(replica.page(null, null, null)).isNull();
+
+        // Once inventory publishes, the replica takes over
+        consumer.addRecord(product(0, 1, "Shirt"));
+        CatalogSnapshot snapshot = awaitSnapshot();
+        assertThat(snapshot.getProducts()).extracting(Product::getName).containsExactly("Shirt");
+        assertThat(replica.page(null, null, null).getProducts()).hasSize(1);
+    }
+
+    @Test
+    void populatedTopicIsServedOnceReadUpToItsStartupEnd() throws Exception {
+        topicWithEndOffset(2);
+        // Records can only be added once the replica has assigned itself the partition
+        consumer.schedulePollTask(() -> {
+            consumer.addRecord(product(0, 1, "Shirt"));
+            consumer.addRecord(product(1, 2, "Watch"));
+        });
+        replica = new CatalogReplica(TOPIC, 1000, new ObjectMapper(), new SimpleMeterRegistry(), () -> consumer);
+
+        CatalogSnapshot snapshot = awaitSnapshot();
+        assertThat(snapshot.getProducts()).extracting(Product::getId).containsExactly(1, 2);
+        assertThat(snapshot.getVersion()).isEqualTo(2);
+    }
+
+    private void topicWithEndOffset(long endOffset) {
+        consumer.updatePartitions(TOPIC, List.of(new PartitionInfo(TOPIC, 0, null, null, null)));
+        consumer.updateBeginningOffsets(Map.of(PARTITION, 0L));
+        consumer.updateEndOffsets(Map.of(PARTITION, endOffset));
+    }
+
+    private CatalogSnapshot awaitSnapshot() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (replica.current() == null && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(replica.current()).isNotNull();
+        return replica.current();
+    }
+
+    private static ConsumerRecord<String, byte[]> product(long offset, int id, String name) {
+        String json = "{\"id\":" + id + ",\"name\":\"" + name + "\",\"price\":0,\"image\":\"\"}";
+        return new ConsumerRecord<>(TOPIC, 0, offset, String.valueOf(id), json.getBytes(StandardCharsets.UTF_8));
+    }
+}
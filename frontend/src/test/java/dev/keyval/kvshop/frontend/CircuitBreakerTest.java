@@ -0,0 +1,54 @@
+package dev.keyval.kvshop.frontend;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    private final ResilienceProperties.Policy policy = new ResilienceProperties.Policy();
+
+    @BeforeEach
+    void setUp() {
+        policy.setSlidingWindowSize(2);
+        policy.setMinimumCalls(2);
+        policy.setHalfOpenCalls(1);
+        // Half open as soon as a call asks
+        policy.setOpenDuration(Duration.ZERO);
+    }
+
+    @Test
+    void callLetThroughWhileClosedDoesNotDecideTheHalfOpenCircuit() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(policy);
+        long slowCall = circuitBreaker.tryAcquirePermission();
+        circuitBreaker.onFailure(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onFailure(circuitBreaker.tryAcquirePermission());
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        long probe = circuitBreaker.tryAcquirePermission();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+
+        // Neither reopens nor closes the circuit, nor frees the probe's place
+        circuitBreaker.onFailure(slowCall);
+        circuitBreaker.onSuccess(slowCall);
+        circuitBreaker.onNotAttempted(slowCall);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(circuitBreaker.tryAcquirePermission()).isEqualTo(CircuitBreaker.NOT_PERMITTED);
+
+        circuitBreaker.onSuccess(probe);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void probeThatFailsReopensTheCircuit() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(policy);
+        circuitBreaker.onFailure(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onFailure(circuitBreaker.tryAcquirePermission());
+
+        circuitBreaker.onFailure(circuitBreaker.tryAcquirePermission());
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+}
@@ -0,0 +1,180 @@
+package dev.keyval.kvshop.frontend;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DownstreamGuardTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final ScheduledExecutorService hedgeTimer = Executors.newSingleThreadScheduledExecutor();
+    private final ResilienceProperties.Policy policy = new ResilienceProperties.Policy();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        policy.setHedge(true);
+        policy.setHedgeMinDelay(Duration.ofMillis(20));
+        policy.setHedgeDefaultDelay(Duration.ofMillis(20));
+        policy.setMaxConcurrentCalls(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+        hedgeTimer.shutdownNow();
+    }
+
+    @Test
+    void losingAttemptGivesBackItsPermitWhileStillStuck() throws Exception {
+        DownstreamGuard guard = new DownstreamGuard("inventory", policy, executor, hedgeTimer, meterRegistry);
+        AtomicInteger calls = new AtomicInteger();
+        AtomicBoolean loserInterrupted = new AtomicBoolean();
+
+        CompletableFuture<String> result = guard.hedged(() -> {
+            if (calls.incrementAndGet() == 1) {
+                // Keeps waiting when interrupted, like a blocking socket read
+                if (awaitUninterruptibly(release)) {
+                    loserInterrupted.set(true);
+                }
+                return "slow";
+            }
+            return "fast";
+        });
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("fast");
+
+        // With a bulkhead of two, both of these only get through if the stuck attempt's permit was given back
+        CountDownLatch hold = new CountDownLatch(1);
+        CompletableFuture<String> first = guard.call(() -> awaitThen(hold, "a"));
+        CompletableFuture<String> second = guard.call(() -> awaitThen(hold, "b"));
+        hold.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("a");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("b");
+
+        release.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(loserInterrupted).isTrue();
+    }
+
+    @Test
+    void losingAttemptAbortsItsRequest() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/slow", exchange -> {
+            awaitUninterruptibly(release);
+            exchange.close();
+        });
+        server.createContext("/fast", exchange -> {
+            byte[] body = "fast".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        HttpClientProperties properties = new HttpClientProperties();
+        DownstreamClients clients = new DownstreamClients(properties,
+                new HttpClientConfig().downstreamConnectionManager(properties), new RestTemplateBuilder(), meterRegistry);
+        try {
+            RestTemplate restTemplate = clients.restTemplate("inventory");
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            DownstreamGuard guard = new DownstreamGuard("inventory", policy, executor, hedgeTimer, meterRegistry);
+            AtomicInteger calls = new AtomicInteger();
+            CompletableFuture<Void> loserEnded = new CompletableFuture<>();
+
+            CompletableFuture<String> result = guard.hedged(() -> {
+                if (calls.incrementAndGet() == 1) {
+                    try {
+                        return restTemplate.getForObject(base + "/slow", String.class);
+                    } finally {
+                        loserEnded.complete(null);
+                    }
+                }
+                return restTemplate.getForObject(base + "/fast", String.class);
+            });
+            assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("fast");
+
+            // Well before the 5s read timeout; the server never answers /slow while the test runs
+            loserEnded.get(2, TimeUnit.SECONDS);
+        } finally {
+            clients.close();
+            release.countDown();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void singleFlightTimeoutCancelsTheGuardedCall() throws Exception {
+        DownstreamGuard guard = new DownstreamGuard("coupons", policy, executor, hedgeTimer, meterRegistry);
+        SingleFlight<String, String> flight = new SingleFlight<>("coupons", Duration.ofMillis(50), meterRegistry);
+        AtomicBoolean stuckInterrupted = new AtomicBoolean();
+
+        CompletableFuture<String> timedOut = flight.execute("coupons", () -> guard.call(() -> {
+            if (awaitUninterruptibly(release)) {
+                stuckInterrupted.set(true);
+            }
+            return "late";
+        }));
+        assertThat(timedOut).failsWithin(5, TimeUnit.SECONDS);
+
+        // Only gets through the bulkhead of two if the timed out call gave its permit back
+        CountDownLatch hold = new CountDownLatch(1);
+        CompletableFuture<String> first = guard.call(() -> awaitThen(hold, "a"));
+        CompletableFuture<String> second = guard.call(() -> awaitThen(hold, "b"));
+        hold.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("a");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("b");
+
+        release.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(stuckInterrupted).isTrue();
+    }
+
+    private static String awaitThen(CountDownLatch latch, String value) {
+        awaitUninterruptibly(latch);
+        return value;
+    }
+
+    // Returns whether the thread was interrupted while waiting, and leaves it interrupted if so
+    private static boolean awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return interrupted;
+    }
+}
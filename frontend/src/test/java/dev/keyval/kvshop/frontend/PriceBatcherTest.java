@@ -0,0 +1,72 @@
+package dev.keyval.kvshop.frontend;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PriceBatcherTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void batchStillInFlightDoesNotHoldUpTheNextOne() throws Exception {
+        CompletableFuture<Map<Integer, Double>> stuck = new CompletableFuture<>();
+        List<List<Integer>> requested = new CopyOnWriteArrayList<>();
+        PriceBatcher batcher = new PriceBatcher(ids -> {
+            requested.add(ids);
+            return requested.size() == 1 ? stuck : CompletableFuture.completedFuture(Map.of(2, 20.0));
+        }, scheduler, 10, 5);
+
+        CompletableFuture<Double> first = batcher.submit(1);
+        assertThat(pollUntil(() -> requested.size() == 1)).isTrue();
+        // With one scheduler thread this only flushes if the first batch isn't waited on there
+        assertThat(batcher.submit(2).get(5, TimeUnit.SECONDS)).isEqualTo(20.0);
+
+        stuck.complete(Map.of(1, 10.0));
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(10.0);
+        assertThat(requested).containsExactly(List.of(1), List.of(2));
+    }
+
+    @Test
+    void failedOrMissingPricesFailTheirIds() {
+        PriceBatcher batcher = new PriceBatcher(ids -> ids.contains(3)
+                ? CompletableFuture.failedFuture(new IllegalStateException("pricing down"))
+                : CompletableFuture.completedFuture(Map.of(1, 10.0)), scheduler, 2, 1000);
+
+        CompletableFuture<Double> priced = batcher.submit(1);
+        CompletableFuture<Double> missing = batcher.submit(2);
+        CompletableFuture<Double> failedFirst = batcher.submit(3);
+        CompletableFuture<Double> failedSecond = batcher.submit(4);
+
+        assertThat(priced).succeedsWithin(5, TimeUnit.SECONDS).isEqualTo(10.0);
+        assertThat(missing).failsWithin(5, TimeUnit.SECONDS);
+        assertThat(failedFirst).failsWithin(5, TimeUnit.SECONDS);
+        assertThat(failedSecond).failsWithin(5, TimeUnit.SECONDS);
+    }
+
+    private static boolean pollUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,159 @@
+package dev.keyval.kvshop.inventory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The product catalog as an immutable, versioned snapshot. Readers never lock; an update swaps in a new snapshot
+@Service
+public class Catalog {
+
+    private final ObjectMapper objectMapper;
+    private volatile Snapshot snapshot;
+
+    public Catalog(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.snapshot = new Snapshot(1, loadItems(), objectMapper);
+    }
+
+    public Snapshot current() {
+        return snapshot;
+    }
+
+    public synchronized Snapshot update(List<InventoryItem> items) {
+        snapshot = new Snapshot(snapshot.getVersion() + 1, items, objectMapper);
+        return snapshot;
+    }
+
+    public static class Snapshot {
+        private final long version;
+        private final String etag;
+        // Sorted by id, which is the order pages are served in
+        private final List<InventoryItem> items;
+        private final int[] ids;
+        private final Map<Integer, InventoryItem> byId;
+        // The full list, serialized once per version
+        private final byte[] body;
+
+        Snapshot(long version, List<InventoryItem> items, ObjectMapper objectMapper) {
+            List<InventoryItem> sorted = new ArrayList<>(items);
+            sorted.sort(Comparator.comparingInt(InventoryItem::getId));
+            this.version = version;
+            this.etag = "\"" + version + "\"";
+            this.items = Collections.unmodifiableList(sorted);
+            this.ids = sorted.stream().mapToInt(InventoryItem::getId).toArray();
+            this.byId = new HashMap<>(sorted.size() * 2);
+            for (InventoryItem item : sorted) {
+                byId.put(item.getId(), item);
+            }
+            try {
+                this.body = objectMapper.writeValueAsBytes(this.items);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Failed to serialize catalog", e);
+            }
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public List<InventoryItem> getItems() {
+            return items;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public InventoryItem get(int id) {
+            return byId.get(id);
+        }
+
+        // Up to limit items with an id greater than the cursor (null for the first page), optionally
+        // restricted to the given ids, in id order
+        public Page page(Collection<Integer> ids, Integer cursor, int limit) {
+            List<InventoryItem> selected;
+            if (ids == null) {
+                int from = cursor == null ? 0 : indexAfter(cursor);
+                selected = items.subList(from, Math.min(items.size(), from + limit + 1));
+            } else {
+                int[] wanted = ids.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+                selected = new ArrayList<>(Math.min(wanted.length, limit + 1));
+                for (int i = 0; i < wanted.length && selected.size() <= limit; i++) {
+                    InventoryItem item = byId.get(wanted[i]);
+                    if (item != null && (cursor == null || wanted[i] > cursor)) {
+                        selected.add(item);
+                    }
+                }
+            }
+            // One item past the limit tells whether there is a next page
+            if (selected.size() > limit) {
+                List<InventoryItem> pageItems = selected.subList(0, limit);
+                return new Page(pageItems, pageItems.get(limit - 1).getId());
+            }
+            return new Page(selected, null);
+        }
+
+        private int indexAfter(int id) {
+            int index = Arrays.binarySearch(ids, id);
+            return index >= 0 ? index + 1 : -index - 1;
+        }
+    }
+
+    public static class Page {
+        private final List<InventoryItem> items;
+        private final Integer nextCursor;
+
+        Page(List<InventoryItem> items, Integer nextCursor) {
+            this.items = items;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<InventoryItem> getItems() {
+            return items;
+        }
+
+        // null on the last page
+        public Integer getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    private static List<InventoryItem> loadItems() {
+        return List.of(
+            new InventoryItem(1, "T Shirt", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f455.png"),
+            new InventoryItem(2, "Pants", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f456.png"),
+            new InventoryItem(3, "Shoes", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f462.png"),
+            new InventoryItem(4, "Hat", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f9e2.png"),
+            new InventoryItem(5, "Socks", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f9e6.png"),
+            new InventoryItem(6, "Gloves", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f9e4.png"),
+            new InventoryItem(7, "Scarf", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f9e3.png"),
+            new InventoryItem(8, "Jacket", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f9e5.png"),
+            new InventoryItem(9, "Kimono", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f458.png"),
+            new InventoryItem(10, "Purse", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f45b.png"),
+            new InventoryItem(11, "Tophat", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f3a9.png"),
+            new InventoryItem(12, "Watch", "https://emoji.aranja.com/static/emoji-data/img-apple-160/231a.png"),
+            new InventoryItem(13, "Sunglasses", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f576-fe0f.png"),
+            new InventoryItem(14, "Womans Hat", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f452.png"),
+            new InventoryItem(15, "Sandal", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f461.png"),
+            new InventoryItem(16, "Bracelet", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f4ff.png"),
+            new InventoryItem(17, "Ring", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f48d.png"),
+            new InventoryItem(18, "Suit", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f454.png"),
+            new InventoryItem(19, "Dress", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f457.png"),
+            new InventoryItem(20, "Eyeglasses", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f453.png")
+        );
+    }
+}
@@ -0,0 +1,220 @@
+package dev.keyval.kvshop.inventory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.TopicConfig;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+// Publishes the catalog to a compacted topic, one record per product keyed by its id and an empty value once the
+// product is removed. Consumers rebuild the whole catalog by reading the topic from the start and then follow
+// its changes, instead of asking for it on every request. The catalog is published as loaded at startup, sending
+// only what differs from the topic
+@Service
+public class CatalogPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogPublisher.class);
+
+    private final Catalog catalog;
+    private final InventoryKafkaProducer producer;
+    private final ObjectMapper objectMapper;
+    private final String bootstrapServers;
+    private final String topic;
+    private final long retryBackoffMillis;
+    private final ScheduledExecutorService executor;
+    // Serialized products on the topic, by id. Only used on the executor's thread
+    private Map<Integer, byte[]> published;
+    private boolean retryScheduled;
+
+    @Autowired
+    public CatalogPublisher(Catalog catalog,
+                            InventoryKafkaProducer producer,
+                            ObjectMapper objectMapper,
+                            @Value("${kafka.servers}") String bootstrapServers,
+                            @Value("${inventory.catalog.topic:catalog}") String topic,
+                            @Value("${inventory.catalog.retry-backoff-ms:5000}") long retryBackoffMillis) {
+        this.catalog = catalog;
+        this.producer = producer;
+        this.objectMapper = objectMapper;
+        this.bootstrapServers = bootstrapServers;
+        this.topic = topic;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "catalog-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::publish);
+    }
+
+    private void publish() {
+        try {
+            publishChanges();
+        } catch (RuntimeException e) {
+            log.error("Failed to publish the catalog, retrying", e);
+            retryLater();
+        }
+    }
+
+    private void publishChanges() {
+        if (published == null) {
+            if (!createTopic()) {
+                retryLater();
+                return;
+            }
+            // What an earlier run published, so products removed since then are removed from the topic too
+            published = readTopic();
+        }
+
+        Catalog.Snapshot snapshot = catalog.current();
+        Map<Integer, byte[]> current = new HashMap<>(snapshot.getItems().size() * 2);
+        List<ProducerRecord<String, byte[]>> changes = new ArrayList<>();
+        for (InventoryItem item : snapshot.getItems()) {
+            byte[] value;
+            try {
+                value = objectMapper.writeValueAsBytes(item);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Failed to serialize product " + item.getId(), e);
+            }
+            current.put(item.getId(), value);
+            if (!Arrays.equals(value, published.get(item.getId()))) {
+                changes.add(new ProducerRecord<>(topic, String.valueOf(item.getId()), value));
+            }
+        }
+        for (Integer removed : published.keySet()) {
+            if (!current.containsKey(removed)) {
+                changes.add(new ProducerRecord<>(topic, String.valueOf(removed), null));
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        // Catalog changes are rare, so they share the order producer
+        List<CompletableFuture<RecordMetadata>> acks = new ArrayList<>(changes.size());
+        for (ProducerRecord<String, byte[]> change : changes) {
+            acks.add(producer.send(change));
+        }
+        try {
+            CompletableFuture.allOf(acks.toArray(new CompletableFuture[0])).get();
+        } catch (ExecutionException e) {
+            log.warn("Failed to publish catalog version {}, retrying: {}", snapshot.getVersion(), e.getCause().getMessage());
+            retryLater();
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        published = current;
+        log.info("Published catalog version {} with {} changes to {}", snapshot.getVersion(), changes.size(), topic);
+    }
+
+    private boolean createTopic() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(AdminClientConfig.REQUEST_TIMEOUT_MS_CONFIG, 5000);
+        props.put(AdminClientConfig.DEFAULT_API_TIMEOUT_MS_CONFIG, 10000);
+        // One partition keeps every change in order; compaction keeps the latest record per product forever
+        NewTopic newTopic = new NewTopic(topic, Optional.of(1), Optional.empty())
+                .configs(Map.of(TopicConfig.CLEANUP_POLICY_CONFIG, TopicConfig.CLEANUP_POLICY_COMPACT));
+        try (Admin admin = Admin.create(props)) {
+            admin.createTopics(List.of(newTopic)).all().get(10, TimeUnit.SECONDS);
+            log.info("Created catalog topic {}", topic);
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof TopicExistsException)) {
+                log.warn("Failed to create catalog topic {}, retrying: {}", topic, e.getCause().getMessage());
+                return false;
+            }
+        } catch (TimeoutException e) {
+            log.warn("Timed out creating catalog topic {}, retrying", topic);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    private Map<Integer, byte[]> readTopic() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        props.put(ConsumerConfig.DEFAULT_API_TIMEOUT_MS_CONFIG, 10000);
+        Map<Integer, byte[]> products = new HashMap<>();
+        try (KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(props)) {
+            List<TopicPartition> partitions = consumer.partitionsFor(topic).stream()
+                    .map(info -> new TopicPartition(topic, info.partition()))
+                    .collect(Collectors.toList());
+            consumer.assign(partitions);
+            consumer.seekToBeginning(partitions);
+            Map<TopicPartition, Long> end = consumer.endOffsets(partitions);
+            while (partitions.stream().anyMatch(partition -> consumer.position(partition) < end.get(partition))) {
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(Duration.ofSeconds(1))) {
+                    Integer id;
+                    try {
+                        id = Integer.valueOf(record.key());
+                    } catch (NumberFormatException e) {
+                        // Not written by us, and not a product anyone can look up, so it's left for whoever wrote it
+                        log.warn("Ignoring catalog record at offset {} of partition {} with key {}, not a product id",
+                                record.offset(), record.partition(), record.key());
+                        continue;
+                    }
+                    if (record.value() == null || record.value().length == 0) {
+                        products.remove(id);
+                    } else {
+                        products.put(id, record.value());
+                    }
+                }
+            }
+        }
+        return products;
+    }
+
+    private void retryLater() {
+        if (!retryScheduled) {
+            retryScheduled = true;
+            executor.schedule(() -> {
+                retryScheduled = false;
+                publish();
+            }, retryBackoffMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+}
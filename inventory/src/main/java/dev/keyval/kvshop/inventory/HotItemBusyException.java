@@ -0,0 +1,8 @@
+package dev.keyval.kvshop.inventory;
+
+public class HotItemBusyException extends RuntimeException {
+
+    public HotItemBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,140 @@
+package dev.keyval.kvshop.inventory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Limits how many purchases of a hot product run at once. Purchases over the limit wait in a bounded
+// per-product queue without holding a thread, and fail fast when the queue is full or their wait budget runs out
+@Service
+public class HotItemGate {
+
+    private final Map<Integer, Lane> lanes = new HashMap<>();
+    private final int concurrency;
+    private final int queueCapacity;
+    private final long waitBudgetMillis;
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("hot-item-timeout-"));
+    private final Timer waitTimer;
+    private final Counter queueFull;
+    private final Counter waitBudgetExceeded;
+
+    public HotItemGate(@Value("${inventory.hot-items.ids:12}") Set<Integer> hotItemIds,
+                       @Value("${inventory.hot-items.concurrency:4}") int concurrency,
+                       @Value("${inventory.hot-items.queue-capacity:100}") int queueCapacity,
+                       @Value("${inventory.hot-items.wait-budget-ms:200}") long waitBudgetMillis,
+                       MeterRegistry meterRegistry) {
+        this.concurrency = concurrency;
+        this.queueCapacity = queueCapacity;
+        this.waitBudgetMillis = waitBudgetMillis;
+        // The set of hot products is fixed at startup, so lanes can live in a plain map
+        for (Integer id : hotItemIds) {
+            Lane lane = new Lane();
+            lanes.put(id, lane);
+            Gauge.builder("inventory.hot-items.queued", lane, Lane::queued)
+                    .description("Purchases of a hot product waiting for their turn")
+                    .tag("product", String.valueOf(id))
+                    .strongReference(true)
+                    .register(meterRegistry);
+        }
+        this.waitTimer = Timer.builder("inventory.hot-items.wait")
+                .description("Time purchases of hot products waited for their turn")
+                .register(meterRegistry);
+        this.queueFull = Counter.builder("inventory.hot-items.rejected").tag("reason", "queue_full").register(meterRegistry);
+        this.waitBudgetExceeded = Counter.builder("inventory.hot-items.rejected").tag("reason", "wait_budget").register(meterRegistry);
+    }
+
+    // Runs the purchase right away for regular products; for hot ones once one of the lane's slots is free
+    public <T> CompletableFuture<T> submit(int productId, Supplier<CompletableFuture<T>> purchase) {
+        Lane lane = lanes.get(productId);
+        if (lane == null) {
+            return purchase.get();
+        }
+        return lane.acquire().thenCompose(ignored -> {
+            CompletableFuture<T> result;
+            try {
+                result = purchase.get();
+            } catch (RuntimeException e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+            return result.whenComplete((value, exception) -> lane.release());
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timeouts.shutdownNow();
+    }
+
+    private class Lane {
+        private int running;
+        private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+        CompletableFuture<Void> acquire() {
+            Waiter waiter;
+            synchronized (this) {
+                if (running < concurrency) {
+                    running++;
+                    return CompletableFuture.completedFuture(null);
+                }
+                if (waiters.size() >= queueCapacity) {
+                    queueFull.increment();
+                    return CompletableFuture.failedFuture(new HotItemBusyException("Too many purchases of this product waiting, try again later"));
+                }
+                waiter = new Waiter();
+                waiters.add(waiter);
+            }
+            timeouts.schedule(() -> expire(waiter), waitBudgetMillis, TimeUnit.MILLISECONDS);
+            return waiter.turn;
+        }
+
+        void release() {
+            Waiter next;
+            synchronized (this) {
+                next = waiters.poll();
+                if (next == null) {
+                    running--;
+                    return;
+                }
+            }
+            // The slot passes straight to the next waiter; completing it outside the lock keeps
+            // the purchase it starts from running while the lane is locked
+            waitTimer.record(System.nanoTime() - next.enqueuedNanos, TimeUnit.NANOSECONDS);
+            next.turn.complete(null);
+        }
+
+        private void expire(Waiter waiter) {
+            // Whoever takes the waiter out of the queue owns it, so a turn and a timeout never both complete it
+            synchronized (this) {
+                if (!waiters.remove(waiter)) {
+                    return;
+                }
+            }
+            waitBudgetExceeded.increment();
+            waiter.turn.completeExceptionally(new HotItemBusyException("Waited more than " + waitBudgetMillis + "ms for this product, try again later"));
+        }
+
+        synchronized int queued() {
+            return waiters.size();
+        }
+    }
+
+    private static class Waiter {
+        private final CompletableFuture<Void> turn = new CompletableFuture<>();
+        private final long enqueuedNanos = System.nanoTime();
+    }
+}
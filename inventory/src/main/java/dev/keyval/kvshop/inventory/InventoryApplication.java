@@ -2,11 +2,16 @@ package dev.keyval.kvshop.inventory;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 public class InventoryApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(InventoryApplication.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(InventoryApplication.class, args);
+		// The fast-startup build starts the app once with this set, so the classes loaded on the way go into its CDS archive
+		if (Boolean.getBoolean("startup.training-run")) {
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 }
@@ -1,95 +1,275 @@
 package dev.keyval.kvshop.inventory;
 
-import org.apache.kafka.clients.producer.KafkaProducer;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpEntity;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.WebRequest;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 @RestController
 public class InventoryController {
 
-    private static final List<InventoryItem> items = loadItems();
-    private final KafkaProducer<String, String> producer;
+    private static final Logger log = LoggerFactory.getLogger(InventoryController.class);
+
+    private final OrderOutbox outbox;
+    private final StockEngine stockEngine;
+    private final Catalog catalog;
+    private final ObjectMapper objectMapper;
+    private final int maxPageSize;
+    private final int maxCheckoutItems;
+    private final HotItemGate hotItemGate;
+    private final LockSimulator lockSimulator;
+    private final PlacedOrders placedOrders;
     private static final Integer watchProductID = 12;
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final String ORDER_RECEIVED_AT_HEADER = "X-Order-Received-At";
+    public static final String FRONTEND_RECEIVED_AT_HEADER = "frontend-received-at";
+    public static final String INVENTORY_RECEIVED_AT_HEADER = "inventory-received-at";
 
     @Autowired
-    public InventoryController(InventoryKafkaProducer producer) {
-        this.producer = producer.getProducer();
+    public InventoryController(OrderOutbox outbox,
+                               StockEngine stockEngine,
+                               Catalog catalog,
+                               ObjectMapper objectMapper,
+                               HotItemGate hotItemGate,
+                               LockSimulator lockSimulator,
+                               PlacedOrders placedOrders,
+                               @Value("${inventory.stock.initial-quantity:1000}") int initialQuantity,
+                               @Value("${inventory.page.max-size:1000}") int maxPageSize,
+                               @Value("${inventory.checkout.max-items:100}") int maxCheckoutItems) {
+        this.outbox = outbox;
+        this.stockEngine = stockEngine;
+        this.catalog = catalog;
+        this.objectMapper = objectMapper;
+        this.maxPageSize = maxPageSize;
+        this.maxCheckoutItems = maxCheckoutItems;
+        this.hotItemGate = hotItemGate;
+        this.lockSimulator = lockSimulator;
+        this.placedOrders = placedOrders;
+        for (InventoryItem item : catalog.current().getItems()) {
+            stockEngine.setStock(item.getId(), initialQuantity);
+        }
+    }
+
+    // Without parameters this is the whole catalog, served from the bytes serialized for the current version.
+    // cursor is the last id of the previous page, the next one comes back in X-Next-Cursor
+    @GetMapping(value = "/inventory", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getInventory(@RequestParam(required = false) List<Integer> ids,
+                                               @RequestParam(required = false) Integer cursor,
+                                               @RequestParam(required = false) Integer limit,
+                                               WebRequest request) throws JsonProcessingException {
+        if (limit != null && limit <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        Catalog.Snapshot snapshot = catalog.current();
+        // The catalog version identifies every representation, so a match means nothing has to be serialized
+        if (request.checkNotModified(snapshot.getEtag())) {
+            return null;
+        }
+        if (ids == null && cursor == null && limit == null && snapshot.getItems().size() <= maxPageSize) {
+            return ResponseEntity.ok().eTag(snapshot.getEtag()).body(snapshot.getBody());
+        }
+
+        Catalog.Page page = snapshot.page(ids, cursor, limit == null ? maxPageSize : Math.min(limit, maxPageSize));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(snapshot.getEtag());
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(page.getNextCursor()));
+        }
+        return response.body(objectMapper.writeValueAsBytes(page.getItems()));
     }
 
-    @GetMapping("/inventory")
-    public List<InventoryItem> getInventory() {
-        System.out.println("Returning inventory");
-        return items;
+    @GetMapping("/stock")
+    public ResponseEntity<StockLevel> getStock(@RequestParam int id) {
+        int available = stockEngine.available(id);
+        if (available < 0) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(new StockLevel(id, available));
     }
 
     @PostMapping("/buy")
-    public void buyProduct(@RequestParam int id) throws InterruptedException {
-        System.out.println("Buying product with id " + id);
-        if (id == watchProductID) {
-            System.out.println("Simulating lock for product with id " + id);
-            triggerLockRequest(10);  // Lock for 10s
+    public CompletableFuture<ResponseEntity<String>> buyProduct(@RequestParam int id,
+                                                                @RequestParam(defaultValue = "1") int quantity,
+                                                                @RequestParam(defaultValue = "0") double price,
+                                                                @RequestParam(defaultValue = "USD") String currency,
+                                                                @RequestHeader(name = ORDER_RECEIVED_AT_HEADER, required = false) Long frontendReceivedAt) {
+        log.debug("Buying product with id {}", id);
+        RecordHeaders timings = timings(frontendReceivedAt);
+        if (quantity <= 0 || currency.length() != 3) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body("Quantity must be positive and currency a 3 letter code"));
         }
-        ProducerRecord<String, String> record = new ProducerRecord<>("orders", "" + id, "Product with id " + id + " has been bought");
-        record.headers().add("product-id", String.valueOf(id).getBytes());
-        this.producer.send(record);
-        this.producer.flush();
+
+        // Hot products go through a bounded queue, so one popular product can't take all request threads
+        return hotItemGate.submit(id, () -> {
+            if (id == watchProductID) {
+                log.debug("Simulating lock for product with id {}", id);
+                return lockSimulator.trigger(10)  // Lock for 10s
+                        .thenCompose(ignored -> placeOrder(id, quantity, price, currency, timings));
+            }
+            return placeOrder(id, quantity, price, currency, timings);
+        }).exceptionally(InventoryController::busyResponse);
+    }
+
+    // Places a whole cart as one order: all items are reserved or none are, and a single event is published for it.
+    // A retry with the order id of an order that went through gets the same answer without placing it again
+    @PostMapping("/checkout")
+    public CompletableFuture<ResponseEntity<String>> checkout(@RequestBody CheckoutRequest request,
+                                                              @RequestHeader(name = ORDER_RECEIVED_AT_HEADER, required = false) Long frontendReceivedAt) {
+        RecordHeaders timings = timings(frontendReceivedAt);
+        String invalid = validate(request);
+        if (invalid != null) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(invalid));
+        }
+        log.debug("Checking out order {} with {} items", request.getOrderId(), request.getItems().size());
+
+        List<OrderLine> lines = new ArrayList<>(request.getItems().size());
+        boolean watched = false;
+        for (CheckoutRequest.Item item : request.getItems()) {
+            lines.add(new OrderLine(item.getId(), item.getQuantity(), Math.round(item.getPrice() * 100)));
+            watched |= item.getId() == watchProductID;
+        }
+        Supplier<CompletableFuture<ResponseEntity<String>>> placeCart = () -> placeCart(request.getOrderId(), lines, request.getCurrency(), timings);
+        Supplier<CompletableFuture<ResponseEntity<String>>> purchase = !watched ? placeCart : () -> {
+            log.debug("Simulating lock for product with id {}", watchProductID);
+            return lockSimulator.trigger(10).thenCompose(ignored -> placeCart.get());
+        };
+        List<Integer> gatedIds = lines.stream().map(OrderLine::getProductId).distinct().sorted().toList();
+        return placedOrders.place(request.getOrderId(), lines,
+                () -> throughHotItemGates(gatedIds, 0, purchase).exceptionally(InventoryController::busyResponse));
+    }
+
+    private String validate(CheckoutRequest request) {
+        if (request.getOrderId() <= 0) {
+            return "An order id is required";
+        }
+        if (request.getItems() == null || request.getItems().isEmpty()) {
+            return "A cart needs at least one item";
+        }
+        if (request.getItems().size() > maxCheckoutItems) {
+            return "A cart can have at most " + maxCheckoutItems + " items";
+        }
+        if (request.getCurrency() == null || request.getCurrency().length() != 3) {
+            return "Currency must be a 3 letter code";
+        }
+        Set<Integer> ids = new HashSet<>();
+        for (CheckoutRequest.Item item : request.getItems()) {
+            if (item.getQuantity() <= 0) {
+                return "Quantity must be positive";
+            }
+            if (!ids.add(item.getId())) {
+                return "Product " + item.getId() + " appears more than once";
+            }
+        }
+        return null;
+    }
+
+    // A cart takes one slot in the lane of every hot product it contains. productIds are sorted and distinct,
+    // so lanes are entered in the same order by every cart and two carts can never each hold a slot the
+    // other one is waiting for, whatever order the request listed the items in
+    private CompletableFuture<ResponseEntity<String>> throughHotItemGates(List<Integer> productIds, int index,
+                                                                         Supplier<CompletableFuture<ResponseEntity<String>>> purchase) {
+        if (index == productIds.size()) {
+            return purchase.get();
+        }
+        return hotItemGate.submit(productIds.get(index), () -> throughHotItemGates(productIds, index + 1, purchase));
     }
 
-    private static List<InventoryItem> loadItems() {
-        return List.of(
-            new InventoryItem(1, "T Shirt", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f455.png"),
-            new InventoryItem(2, "Pants", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f456.png"),
-            new InventoryItem(3, "Shoes", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f462.png"),
-            new InventoryItem(4, "Hat", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f9e2.png"),
-            new InventoryItem(5, "Socks", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f9e6.png"),
-            new InventoryItem(6, "Gloves", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f9e4.png"),
-            new InventoryItem(7, "Scarf", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f9e3.png"),
-            new InventoryItem(8, "Jacket", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f9e5.png"),
-            new InventoryItem(9, "Kimono", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f458.png"),
-            new InventoryItem(10, "Purse", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f45b.png"),
-            new InventoryItem(11, "Tophat", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f3a9.png"),
-            new InventoryItem(12, "Watch", "https://emoji.aranja.com/static/emoji-data/img-apple-160/231a.png"),
-            new InventoryItem(13, "Sunglasses", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f576-fe0f.png"),
-            new InventoryItem(14, "Womans Hat", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f452.png"),
-            new InventoryItem(15, "Sandal", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f461.png"),
-            new InventoryItem(16, "Bracelet", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f4ff.png"),
-            new InventoryItem(17, "Ring", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f48d.png"),
-            new InventoryItem(18, "Suit", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f454.png"),
-            new InventoryItem(19, "Dress", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f457.png"),
-            new InventoryItem(20, "Eyeglasses", "https://emoji.aranja.com/static/emoji-data/img-apple-160/1f453.png")
-        );
+    // Each stage an order goes through stamps when it got there (epoch millis), so the warehouse can tell
+    // where the time between the frontend's request and its own processing went
+    private static RecordHeaders timings(Long frontendReceivedAt) {
+        RecordHeaders headers = new RecordHeaders();
+        if (frontendReceivedAt != null) {
+            headers.add(FRONTEND_RECEIVED_AT_HEADER, String.valueOf(frontendReceivedAt).getBytes());
+        }
+        headers.add(INVENTORY_RECEIVED_AT_HEADER, String.valueOf(System.currentTimeMillis()).getBytes());
+        return headers;
     }
 
-    private void triggerLockRequest(int lockDuration) {
-        try {
-            RestTemplate restTemplate = new RestTemplate();
-            String url = "http://" + System.getenv("ADS_SERVICE_HOST") + "/simulate-lock";
-    
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-    
-            Map<String, Object> body = new HashMap<>();
-            body.put("lock_duration", lockDuration);
-    
-            HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
-            ResponseEntity<String> response = restTemplate.postForEntity(url, request, String.class);
-            System.out.println("Lock request sent. Status: " + response.getStatusCode());
-        } catch (Exception e) {
-            System.err.println("Failed to trigger lock: " + e.getMessage());
+    private static ResponseEntity<String> busyResponse(Throwable exception) {
+        Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+        if (cause instanceof HotItemBusyException) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1").body(cause.getMessage());
         }
+        throw exception instanceof CompletionException ? (CompletionException) exception : new CompletionException(exception);
     }
 
+    private CompletableFuture<ResponseEntity<String>> placeCart(long orderId, List<OrderLine> lines, String currency, RecordHeaders timings) {
+        StockEngine.CartReservation reservation = stockEngine.reserveAll(lines);
+        switch (reservation.getOutcome()) {
+            case UNKNOWN_PRODUCT:
+                return CompletableFuture.completedFuture(
+                        ResponseEntity.status(HttpStatus.NOT_FOUND).body("Unknown product " + reservation.getProductId()));
+            case OUT_OF_STOCK:
+                return CompletableFuture.completedFuture(
+                        ResponseEntity.status(HttpStatus.CONFLICT).body("Product " + reservation.getProductId() + " is out of stock"));
+            default:
+                break;
+        }
+        OrderEvent event = new OrderEvent(orderId, lines, currency, System.currentTimeMillis());
+        ProducerRecord<String, OrderEvent> record = new ProducerRecord<>("orders", null, String.valueOf(orderId), event, timings);
+        record.headers().add("order-id", String.valueOf(orderId).getBytes());
+        return publish(record, () -> stockEngine.releaseAll(lines), "order " + orderId);
+    }
+
+    private CompletableFuture<ResponseEntity<String>> placeOrder(int id, int quantity, double price, String currency,
+                                                                 RecordHeaders timings) {
+        switch (stockEngine.reserve(id, quantity)) {
+            case UNKNOWN_PRODUCT:
+                return CompletableFuture.completedFuture(
+                        ResponseEntity.status(HttpStatus.NOT_FOUND).body("Unknown product " + id));
+            case OUT_OF_STOCK:
+                return CompletableFuture.completedFuture(
+                        ResponseEntity.status(HttpStatus.CONFLICT).body("Product " + id + " is out of stock"));
+            default:
+                break;
+        }
+        OrderEvent event = new OrderEvent(
+                UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE,
+                id,
+                quantity,
+                Math.round(price * 100),
+                currency,
+                System.currentTimeMillis());
+        ProducerRecord<String, OrderEvent> record = new ProducerRecord<>("orders", null, "" + id, event, timings);
+        record.headers().add("product-id", String.valueOf(id).getBytes());
+        return publish(record, () -> stockEngine.release(id, quantity), "product with id " + id);
+    }
+
+    // Respond once the order is on disk in the outbox, which takes it to Kafka from there. Only a failed
+    // append is reported as an error, and the reserved stock is put back since the order never happened
+    private CompletableFuture<ResponseEntity<String>> publish(ProducerRecord<String, OrderEvent> record, Runnable releaseStock, String what) {
+        return this.outbox.append(record).handle((sequence, exception) -> {
+            if (exception != null) {
+                releaseStock.run();
+                Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+                log.warn("Failed to record order for {}: {}", what, cause.getMessage());
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(cause.getMessage());
+            }
+            return ResponseEntity.ok().build();
+        });
+    }
 }
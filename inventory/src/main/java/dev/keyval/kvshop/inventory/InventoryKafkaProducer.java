@@ -1,31 +1,123 @@
 package dev.keyval.kvshop.inventory;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.kafka.KafkaClientMetrics;
+import jakarta.annotation.PreDestroy;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class InventoryKafkaProducer {
 
-    private final KafkaProducer<String, String> producer;
+    private final KafkaProducer<String, byte[]> producer;
+    private final Semaphore inFlight;
+    private final long backpressureTimeoutMillis;
+    private final Timer ackedTimer;
+    private final Timer failedTimer;
 
     @Autowired
-    public InventoryKafkaProducer(@Value("${kafka.servers}") String bootstrapServers) {
+    public InventoryKafkaProducer(@Value("${kafka.servers}") String bootstrapServers,
+                                  @Value("${kafka.producer.linger-ms:5}") int lingerMs,
+                                  @Value("${kafka.producer.batch-size:65536}") int batchSize,
+                                  @Value("${kafka.producer.compression-type:lz4}") String compressionType,
+                                  @Value("${kafka.producer.delivery-timeout-ms:30000}") int deliveryTimeoutMs,
+                                  @Value("${kafka.producer.max-block-ms:1000}") long maxBlockMs,
+                                  @Value("${kafka.producer.max-in-flight-orders:1000}") int maxInFlightOrders,
+                                  @Value("${kafka.producer.backpressure-timeout-ms:100}") long backpressureTimeoutMillis,
+                                  MeterRegistry meterRegistry) {
         Map<String, Object> props = new HashMap<>();
         props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+
+        // Let concurrent orders share batches instead of flushing each one on its own
+        props.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+
+        // An order only counts as published once all in-sync replicas have it
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        // With idempotence, retries and at most 5 requests in flight the producer keeps each partition in order,
+        // which the outbox relay relies on
+        props.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
+        props.put(ProducerConfig.RETRIES_CONFIG, Integer.MAX_VALUE);
+        props.put(ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG, deliveryTimeoutMs);
+        props.put(ProducerConfig.REQUEST_TIMEOUT_MS_CONFIG, Math.min(deliveryTimeoutMs - lingerMs, 30000));
+        // Fail fast instead of blocking request threads when metadata or buffer space is unavailable
+        props.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, maxBlockMs);
 
         this.producer = new KafkaProducer<>(props);
+        this.inFlight = new Semaphore(maxInFlightOrders);
+        this.backpressureTimeoutMillis = backpressureTimeoutMillis;
+
+        // Send latency is measured from send() to the broker's acknowledgement
+        this.ackedTimer = sendTimer(meterRegistry, "acked");
+        this.failedTimer = sendTimer(meterRegistry, "failed");
+        Gauge.builder("kafka.orders.in-flight", () -> maxInFlightOrders - inFlight.availablePermits())
+                .description("Orders sent to Kafka and waiting for acknowledgement")
+                .register(meterRegistry);
+        new KafkaClientMetrics(producer).bindTo(meterRegistry);
+    }
+
+    private static Timer sendTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("kafka.orders.send")
+                .description("Time from publishing an order until Kafka acknowledges it")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    // Completes when the broker acknowledges the record, or fails when it can't be published
+    public CompletableFuture<RecordMetadata> send(ProducerRecord<String, byte[]> record) {
+        try {
+            if (!inFlight.tryAcquire(backpressureTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                return CompletableFuture.failedFuture(
+                        new OrderPublishException("Too many orders waiting for acknowledgement, try again later"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(new OrderPublishException("Interrupted while waiting to publish order", e));
+        }
+
+        CompletableFuture<RecordMetadata> ack = new CompletableFuture<>();
+        long start = System.nanoTime();
+        try {
+            producer.send(record, (metadata, exception) -> {
+                inFlight.release();
+                (exception != null ? failedTimer : ackedTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                if (exception != null) {
+                    ack.completeExceptionally(new OrderPublishException("Order was not acknowledged by Kafka: " + exception.getMessage(), exception));
+                } else {
+                    ack.complete(metadata);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            failedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            ack.completeExceptionally(new OrderPublishException("Failed to publish order: " + e.getMessage(), e));
+        }
+        return ack;
     }
 
-    public KafkaProducer<String, String> getProducer() {
-        return producer;
+    @PreDestroy
+    public void close() {
+        // Deliver whatever is still batched before shutting down
+        producer.close(Duration.ofSeconds(10));
     }
 }
@@ -0,0 +1,53 @@
+package dev.keyval.kvshop.inventory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+// Asks the ads service to hold a lock on its table for a while, without tying up a request thread
+@Service
+public class LockSimulator {
+
+    private static final Logger log = LoggerFactory.getLogger(LockSimulator.class);
+
+    private final String adsServiceHost;
+    private final Duration timeout;
+    private final HttpClient httpClient;
+
+    public LockSimulator(@Value("${ADS_SERVICE_HOST:}") String adsServiceHost,
+                         @Value("${inventory.lock-simulation.timeout-ms:1000}") long timeoutMillis) {
+        this.adsServiceHost = adsServiceHost;
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.httpClient = HttpClient.newBuilder().connectTimeout(timeout).build();
+    }
+
+    // Never fails; a lock that couldn't be triggered is only logged
+    public CompletableFuture<Void> trigger(int lockDurationSeconds) {
+        if (adsServiceHost.isEmpty()) {
+            log.debug("ADS_SERVICE_HOST is not set, not simulating a lock");
+            return CompletableFuture.completedFuture(null);
+        }
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://" + adsServiceHost + "/simulate-lock"))
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"lock_duration\":" + lockDurationSeconds + "}"))
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, exception) -> {
+                    if (exception != null) {
+                        log.warn("Failed to trigger lock: {}", exception.getMessage());
+                    } else {
+                        log.debug("Lock request sent. Status: {}", response.statusCode());
+                    }
+                    return null;
+                });
+    }
+}
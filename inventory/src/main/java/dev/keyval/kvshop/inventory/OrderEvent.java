@@ -0,0 +1,41 @@
+package dev.keyval.kvshop.inventory;
+
+import java.util.Collections;
+import java.util.List;
+
+public class OrderEvent {
+    private final long orderId;
+    private final List<OrderLine> lines;
+    private final String currency;
+    private final long timestampMillis;
+
+    public OrderEvent(long orderId, int productId, int quantity, long priceMinor, String currency, long timestampMillis) {
+        this(orderId, Collections.singletonList(new OrderLine(productId, quantity, priceMinor)), currency, timestampMillis);
+    }
+
+    public OrderEvent(long orderId, List<OrderLine> lines, String currency, long timestampMillis) {
+        if (lines.isEmpty()) {
+            throw new IllegalArgumentException("An order needs at least one line");
+        }
+        this.orderId = orderId;
+        this.lines = Collections.unmodifiableList(lines);
+        this.currency = currency;
+        this.timestampMillis = timestampMillis;
+    }
+
+    public long getOrderId() {
+        return orderId;
+    }
+
+    public List<OrderLine> getLines() {
+        return lines;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+}
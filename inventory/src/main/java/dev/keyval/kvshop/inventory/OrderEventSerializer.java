@@ -0,0 +1,77 @@
+package dev.keyval.kvshop.inventory;
+
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes {@link OrderEvent}s in the compact binary format read by the warehouse.
+ *
+ * <pre>
+ * version 1: magic(1) version(1) orderId(8) productId(4) quantity(4) priceMinor(8) currency(3, ASCII) timestampMillis(8)
+ * version 2: magic(1) version(1) orderId(8) currency(3, ASCII) timestampMillis(8) lineCount(2)
+ *            lineCount * [productId(4) quantity(4) priceMinor(8)]
+ * </pre>
+ *
+ * All numbers are big-endian. The magic byte never starts a legacy text event, which lets
+ * readers tell the formats apart. Single item orders are still written as version 1.
+ */
+public class OrderEventSerializer implements Serializer<OrderEvent> {
+
+    public static final byte MAGIC = (byte) 0xCE;
+    public static final byte VERSION_1 = 1;
+    public static final byte VERSION_2 = 2;
+    public static final int VERSION_1_SIZE = 1 + 1 + 8 + 4 + 4 + 8 + 3 + 8;
+    public static final int VERSION_2_HEADER_SIZE = 1 + 1 + 8 + 3 + 8 + 2;
+    public static final int VERSION_2_LINE_SIZE = 4 + 4 + 8;
+    public static final int MAX_LINES = 0xFFFF;
+
+    @Override
+    public byte[] serialize(String topic, OrderEvent event) {
+        if (event == null) {
+            return null;
+        }
+        byte[] currency = event.getCurrency().getBytes(StandardCharsets.US_ASCII);
+        if (currency.length != 3) {
+            throw new IllegalArgumentException("Currency must be a 3 letter code: " + event.getCurrency());
+        }
+        return event.getLines().size() == 1 ? version1(event, currency) : version2(event, currency);
+    }
+
+    private static byte[] version1(OrderEvent event, byte[] currency) {
+        OrderLine line = event.getLines().get(0);
+        byte[] bytes = new byte[VERSION_1_SIZE];
+        ByteBuffer.wrap(bytes)
+                .put(MAGIC)
+                .put(VERSION_1)
+                .putLong(event.getOrderId())
+                .putInt(line.getProductId())
+                .putInt(line.getQuantity())
+                .putLong(line.getPriceMinor())
+                .put(currency)
+                .putLong(event.getTimestampMillis());
+        return bytes;
+    }
+
+    private static byte[] version2(OrderEvent event, byte[] currency) {
+        int lineCount = event.getLines().size();
+        if (lineCount > MAX_LINES) {
+            throw new IllegalArgumentException("Too many lines in order " + event.getOrderId() + ": " + lineCount);
+        }
+        byte[] bytes = new byte[VERSION_2_HEADER_SIZE + lineCount * VERSION_2_LINE_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes)
+                .put(MAGIC)
+                .put(VERSION_2)
+                .putLong(event.getOrderId())
+                .put(currency)
+                .putLong(event.getTimestampMillis())
+                .putShort((short) lineCount);
+        for (OrderLine line : event.getLines()) {
+            buffer.putInt(line.getProductId())
+                    .putInt(line.getQuantity())
+                    .putLong(line.getPriceMinor());
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,26 @@
+package dev.keyval.kvshop.inventory;
+
+public class OrderLine {
+    private final int productId;
+    private final int quantity;
+    // Unit price in minor units (cents) of the order's currency
+    private final long priceMinor;
+
+    public OrderLine(int productId, int quantity, long priceMinor) {
+        this.productId = productId;
+        this.quantity = quantity;
+        this.priceMinor = priceMinor;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public long getPriceMinor() {
+        return priceMinor;
+    }
+}
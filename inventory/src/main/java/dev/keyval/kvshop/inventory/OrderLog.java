@@ -0,0 +1,536 @@
+package dev.keyval.kvshop.inventory;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of records waiting to be published, kept in fixed-size memory-mapped segment files.
+ *
+ * <pre>
+ * record: length(4) crc32(4) sequence(8) topic(1 + n) key(2 + n, -1 for none) value(4 + n) headerCount(1) [name(1 + n) value(2 + n)]*
+ * </pre>
+ *
+ * length covers everything after the crc, which covers everything after itself. A zero length ends a
+ * segment. Appends only copy into the mapped segment; a single flusher thread forces the segments to
+ * disk and completes every append that the force covered, so concurrent appends share one fsync.
+ * A force that keeps failing takes back every record not yet on disk and fails their appends, so a
+ * record whose caller was told it failed is never relayed. Sequences start at 1 and have no gaps.
+ * Segments are named after their first sequence.
+ */
+public class OrderLog implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderLog.class);
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int FORCE_ATTEMPTS = 3;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Consumer<MappedByteBuffer> force;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Thread flusher;
+
+    // Guarded by this
+    private Segment active;
+    private long nextSequence;
+    private final ArrayDeque<PendingAppend> pending = new ArrayDeque<>();
+    private final List<Segment> dirty = new ArrayList<>();
+    private boolean closed;
+
+    // Everything up to here is on disk
+    private volatile long durableSequence;
+    private volatile FlushListener flushListener = (sequence, records, nanos) -> { };
+
+    public interface FlushListener {
+        void flushed(long durableSequence, int records, long nanos);
+    }
+
+    public OrderLog(Path directory, int segmentSize, int maxSegments) throws IOException {
+        this(directory, segmentSize, maxSegments, MappedByteBuffer::force);
+    }
+
+    // force writes a segment's changes to disk; replaceable so tests can make it fail
+    OrderLog(Path directory, int segmentSize, int maxSegments, Consumer<MappedByteBuffer> force) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.force = force;
+        Files.createDirectories(directory);
+        recover();
+        this.flusher = new Thread(this::flushLoop, "order-log-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public void setFlushListener(FlushListener flushListener) {
+        this.flushListener = flushListener;
+    }
+
+    // Completes with the record's sequence once it is on disk; fails right away when the log is full
+    public CompletableFuture<Long> append(ProducerRecord<String, byte[]> record) {
+        byte[] encoded = encode(record);
+        CompletableFuture<Long> durable = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new OrderPublishException("Order log is closed"));
+            }
+            try {
+                if (active.remaining() < RECORD_HEADER_SIZE + encoded.length) {
+                    if (RECORD_HEADER_SIZE + encoded.length > segmentSize) {
+                        return CompletableFuture.failedFuture(new OrderPublishException("Order is too large for the order log"));
+                    }
+                    if (segments.size() >= maxSegments) {
+                        return CompletableFuture.failedFuture(new OrderPublishException("Order log is full, try again later"));
+                    }
+                    active = createSegment(nextSequence);
+                }
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(new OrderPublishException("Failed to extend order log: " + e.getMessage(), e));
+            }
+            long sequence = nextSequence++;
+            int offset = active.write(sequence, encoded);
+            if (dirty.isEmpty() || dirty.get(dirty.size() - 1) != active) {
+                dirty.add(active);
+            }
+            pending.add(new PendingAppend(sequence, active, offset, durable));
+            notifyAll();
+        }
+        return durable;
+    }
+
+    public long durableSequence() {
+        return durableSequence;
+    }
+
+    // Next sequence an append will get
+    public synchronized long nextSequence() {
+        return nextSequence;
+    }
+
+    // Reads durable records from fromSequence on, at most max of them
+    public List<Entry> read(long fromSequence, int max) {
+        List<Entry> entries = new ArrayList<>();
+        long sequence = fromSequence;
+        long durable = durableSequence;
+        while (sequence <= durable && entries.size() < max) {
+            Map.Entry<Long, Segment> segment = segments.floorEntry(sequence);
+            if (segment == null) {
+                throw new IllegalStateException("Sequence " + sequence + " is no longer in the order log");
+            }
+            int added = segment.getValue().read(sequence, durable, max - entries.size(), entries);
+            if (added == 0) {
+                // The rest of the segment is empty, so the record starts the next one
+                Map.Entry<Long, Segment> next = segments.higherEntry(segment.getKey());
+                if (next == null || next.getKey() != sequence) {
+                    throw new IllegalStateException("Order log has no record with sequence " + sequence);
+                }
+                continue;
+            }
+            sequence += added;
+        }
+        return entries;
+    }
+
+    // Deletes segments whose records are all at or below the given sequence
+    public void truncate(long upToSequence) {
+        while (true) {
+            Map.Entry<Long, Segment> first = segments.firstEntry();
+            Map.Entry<Long, Segment> second = first == null ? null : segments.higherEntry(first.getKey());
+            if (second == null || second.getKey() - 1 > upToSequence) {
+                return;
+            }
+            segments.remove(first.getKey());
+            try {
+                Files.deleteIfExists(first.getValue().path);
+            } catch (IOException e) {
+                log.warn("Failed to delete order log segment {}: {}", first.getValue().path, e.getMessage());
+            }
+        }
+    }
+
+    // Lowest sequence still in the log
+    public long firstSequence() {
+        return segments.firstKey();
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    private void flushLoop() {
+        while (true) {
+            List<PendingAppend> flushing;
+            List<Segment> forcing;
+            synchronized (this) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                // Everything appended so far goes out with this force; what arrives meanwhile waits for the next
+                flushing = new ArrayList<>(pending);
+                pending.clear();
+                forcing = new ArrayList<>(dirty);
+                dirty.clear();
+            }
+
+            long start = System.nanoTime();
+            RuntimeException failure = force(forcing);
+            if (failure != null) {
+                log.error("Failed to flush order log, taking back the orders from sequence {} on", flushing.get(0).sequence, failure);
+                // Appends that came in meanwhile sit after the failed ones, so they are taken back with them
+                List<PendingAppend> failed = new ArrayList<>(flushing);
+                synchronized (this) {
+                    failed.addAll(pending);
+                    pending.clear();
+                    rollBack(flushing.get(0));
+                }
+                OrderPublishException exception = new OrderPublishException("Failed to write order log: " + failure.getMessage(), failure);
+                for (PendingAppend append : failed) {
+                    append.durable.completeExceptionally(exception);
+                }
+                continue;
+            }
+            long last = flushing.get(flushing.size() - 1).sequence;
+            durableSequence = last;
+            flushListener.flushed(last, flushing.size(), System.nanoTime() - start);
+            for (PendingAppend append : flushing) {
+                append.durable.complete(append.sequence);
+            }
+        }
+    }
+
+    // Forces the segments, retrying a few times; returns the last failure if none of the attempts worked
+    private RuntimeException force(List<Segment> forcing) {
+        RuntimeException failure = null;
+        for (int attempt = 1; attempt <= FORCE_ATTEMPTS; attempt++) {
+            try {
+                for (Segment segment : forcing) {
+                    force.accept(segment.buffer);
+                }
+                return null;
+            } catch (RuntimeException e) {
+                failure = e;
+                log.warn("Failed to flush order log (attempt {} of {}): {}", attempt, FORCE_ATTEMPTS, e.getMessage());
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(10L * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return failure;
+            }
+        }
+        return failure;
+    }
+
+    // Removes first and every record after it, none of which are durable, and makes first's sequence the next
+    // one again. Called with the lock held
+    private void rollBack(PendingAppend first) {
+        for (Segment later : new ArrayList<>(segments.tailMap(first.segment.firstSequence, false).values())) {
+            segments.remove(later.firstSequence);
+            try {
+                Files.deleteIfExists(later.path);
+            } catch (IOException e) {
+                log.warn("Failed to delete order log segment {}: {}", later.path, e.getMessage());
+            }
+        }
+        first.segment.clearFrom(first.offset);
+        active = first.segment;
+        nextSequence = first.sequence;
+        dirty.clear();
+        try {
+            // Whatever the failed force did write must not come back as records after a restart
+            force.accept(first.segment.buffer);
+        } catch (RuntimeException e) {
+            log.error("Failed to flush the taken back orders of order log segment {}", first.segment.path, e);
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+
+        long expected = -1;
+        for (Path file : files) {
+            long firstSequence = Long.parseLong(file.getFileName().toString().replace(SEGMENT_SUFFIX, ""));
+            if (expected != -1 && firstSequence != expected) {
+                // A segment was created but nothing made it into the one before; start over from here
+                log.warn("Order log segment {} doesn't follow sequence {}, dropping it", file, expected);
+                Files.delete(file);
+                continue;
+            }
+            Segment segment = openSegment(file, firstSequence);
+            expected = segment.recover();
+            segments.put(firstSequence, segment);
+        }
+
+        if (segments.isEmpty()) {
+            nextSequence = 1;
+            active = createSegment(1);
+        } else {
+            nextSequence = expected;
+            active = segments.lastEntry().getValue();
+        }
+        durableSequence = nextSequence - 1;
+        log.info("Order log in {} has {} segments, next sequence {}", directory, segments.size(), nextSequence);
+    }
+
+    private Segment createSegment(long firstSequence) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", firstSequence, SEGMENT_SUFFIX));
+        Segment segment = openSegment(path, firstSequence);
+        segments.put(firstSequence, segment);
+        return segment;
+    }
+
+    private Segment openSegment(Path path, long firstSequence) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return new Segment(path, firstSequence, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        }
+    }
+
+    private static byte[] encode(ProducerRecord<String, byte[]> record) {
+        byte[] topic = record.topic().getBytes(StandardCharsets.UTF_8);
+        byte[] key = record.key() == null ? null : record.key().getBytes(StandardCharsets.UTF_8);
+        byte[] value = record.value();
+        Header[] headers = record.headers().toArray();
+        if (topic.length > 255 || (key != null && key.length > Short.MAX_VALUE) || headers.length > 255) {
+            throw new IllegalArgumentException("Record doesn't fit the order log format");
+        }
+
+        int size = 1 + topic.length + 2 + (key == null ? 0 : key.length) + 4 + value.length + 1;
+        byte[][] headerNames = new byte[headers.length][];
+        for (int i = 0; i < headers.length; i++) {
+            headerNames[i] = headers[i].key().getBytes(StandardCharsets.UTF_8);
+            if (headerNames[i].length > 255 || headers[i].value().length > 0xFFFF) {
+                throw new IllegalArgumentException("Header " + headers[i].key() + " doesn't fit the order log format");
+            }
+            size += 1 + headerNames[i].length + 2 + headers[i].value().length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put((byte) topic.length).put(topic);
+        if (key == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) key.length).put(key);
+        }
+        buffer.putInt(value.length).put(value);
+        buffer.put((byte) headers.length);
+        for (int i = 0; i < headers.length; i++) {
+            buffer.put((byte) headerNames[i].length).put(headerNames[i]);
+            buffer.putShort((short) headers[i].value().length).put(headers[i].value());
+        }
+        return buffer.array();
+    }
+
+    private static ProducerRecord<String, byte[]> decode(ByteBuffer buffer) {
+        String topic = string(buffer, Byte.toUnsignedInt(buffer.get()));
+        short keyLength = buffer.getShort();
+        String key = keyLength < 0 ? null : string(buffer, keyLength);
+        byte[] value = new byte[buffer.getInt()];
+        buffer.get(value);
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(topic, key, value);
+        int headerCount = Byte.toUnsignedInt(buffer.get());
+        for (int i = 0; i < headerCount; i++) {
+            String name = string(buffer, Byte.toUnsignedInt(buffer.get()));
+            byte[] headerValue = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(headerValue);
+            record.headers().add(name, headerValue);
+        }
+        return record;
+    }
+
+    private static String string(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            // Lets the flusher finish the appends it already took
+            flusher.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static class Entry {
+        private final long sequence;
+        private final ProducerRecord<String, byte[]> record;
+
+        Entry(long sequence, ProducerRecord<String, byte[]> record) {
+            this.sequence = sequence;
+            this.record = record;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public ProducerRecord<String, byte[]> getRecord() {
+            return record;
+        }
+    }
+
+    private static class PendingAppend {
+        private final long sequence;
+        private final Segment segment;
+        // Where the record starts in its segment
+        private final int offset;
+        private final CompletableFuture<Long> durable;
+
+        PendingAppend(long sequence, Segment segment, int offset, CompletableFuture<Long> durable) {
+            this.sequence = sequence;
+            this.segment = segment;
+            this.offset = offset;
+            this.durable = durable;
+        }
+    }
+
+    private static class Segment {
+        private final Path path;
+        private final long firstSequence;
+        private final MappedByteBuffer buffer;
+        // Where the next record goes; only touched by appenders, under the log's lock
+        private int position;
+        // Sequence -> offset of the last record read, so the relay doesn't rescan the segment each time
+        private long lastReadSequence = -1;
+        private int lastReadOffset;
+
+        Segment(Path path, long firstSequence, MappedByteBuffer buffer) {
+            this.path = path;
+            this.firstSequence = firstSequence;
+            this.buffer = buffer;
+        }
+
+        int remaining() {
+            return buffer.capacity() - position;
+        }
+
+        // Returns the offset the record was written at
+        int write(long sequence, byte[] encoded) {
+            int offset = position;
+            ByteBuffer out = buffer.duplicate();
+            out.position(position + 4);
+            CRC32 crc = new CRC32();
+            ByteBuffer sequenceBytes = ByteBuffer.allocate(8).putLong(0, sequence);
+            crc.update(sequenceBytes.array());
+            crc.update(encoded);
+            out.putInt((int) crc.getValue()).putLong(sequence).put(encoded);
+            // The length goes in last, so a reader never sees a record that's only partly there
+            buffer.putInt(position, 8 + encoded.length);
+            position += RECORD_HEADER_SIZE + encoded.length;
+            return offset;
+        }
+
+        // Erases the records from offset on; the zero length written first ends the segment there for readers
+        void clearFrom(int offset) {
+            buffer.putInt(offset, 0);
+            for (int i = offset + 4; i < position; i++) {
+                buffer.put(i, (byte) 0);
+            }
+            position = offset;
+        }
+
+        // Reads records from sequence on, up to durable; returns how many were added
+        synchronized int read(long sequence, long durable, int max, List<Entry> entries) {
+            int offset;
+            long current;
+            if (lastReadSequence != -1 && lastReadSequence < sequence) {
+                offset = lastReadOffset;
+                current = lastReadSequence;
+            } else {
+                offset = 0;
+                current = firstSequence - 1;
+            }
+            int added = 0;
+            while (offset + RECORD_HEADER_SIZE <= buffer.capacity() && current < durable && added < max) {
+                int length = buffer.getInt(offset);
+                if (length == 0) {
+                    break;
+                }
+                current = buffer.getLong(offset + 8);
+                int next = offset + 8 + length;
+                if (current >= sequence) {
+                    ByteBuffer body = buffer.duplicate();
+                    body.position(offset + RECORD_HEADER_SIZE).limit(next);
+                    entries.add(new Entry(current, decode(body.slice())));
+                    added++;
+                }
+                offset = next;
+                lastReadSequence = current;
+                lastReadOffset = offset;
+            }
+            return added;
+        }
+
+        // Finds the end of the valid records after a restart and clears whatever follows; returns the next sequence
+        long recover() {
+            long sequence = firstSequence;
+            int offset = 0;
+            while (offset + RECORD_HEADER_SIZE <= buffer.capacity()) {
+                int length = buffer.getInt(offset);
+                if (length < 8 || offset + 8 + length > buffer.capacity()) {
+                    break;
+                }
+                int storedCrc = buffer.getInt(offset + 4);
+                long recordSequence = buffer.getLong(offset + 8);
+                byte[] body = new byte[length];
+                buffer.duplicate().position(offset + 8).get(body);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != storedCrc || recordSequence != sequence) {
+                    log.warn("Order log segment {} ends with a torn record at offset {}", path, offset);
+                    break;
+                }
+                sequence++;
+                offset += 8 + length;
+            }
+            for (int i = offset; i < buffer.capacity(); i++) {
+                if (buffer.get(i) != 0) {
+                    buffer.put(i, (byte) 0);
+                }
+            }
+            buffer.force();
+            position = offset;
+            return sequence;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package dev.keyval.kvshop.inventory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Orders are written to a local log first and relayed to Kafka from there, so a purchase only waits for
+// the disk and a slow or unavailable broker holds up the relay instead of the buyers. Every relayed record
+// carries a dedup-key header (log id and sequence) that stays the same when a record is sent again, after
+// a failed send or when a restart replays what was sent but not yet checkpointed
+@Service
+public class OrderOutbox {
+
+    public static final String DEDUP_KEY_HEADER = "dedup-key";
+    // When the relay first sent the record to Kafka, next to the timings stamped by the earlier stages
+    public static final String RELAYED_AT_HEADER = "relayed-at";
+
+    private static final Logger log = LoggerFactory.getLogger(OrderOutbox.class);
+
+    private final OrderLog orderLog;
+    private final InventoryKafkaProducer producer;
+    private final OrderEventSerializer serializer = new OrderEventSerializer();
+    private final FileChannel checkpoint;
+    private final String logId;
+    private final int batchSize;
+    private final long retryBackoffMillis;
+    private final Thread relay;
+    private final Counter relayFailures;
+    private volatile boolean running = true;
+    private volatile long relayedSequence;
+
+    @Autowired
+    public OrderOutbox(InventoryKafkaProducer producer,
+                       @Value("${inventory.outbox.dir:${java.io.tmpdir}/inventory-outbox}") String directory,
+                       @Value("${inventory.outbox.segment-size:16MB}") DataSize segmentSize,
+                       @Value("${inventory.outbox.max-segments:64}") int maxSegments,
+                       @Value("${inventory.outbox.relay.batch-size:500}") int batchSize,
+                       @Value("${inventory.outbox.relay.retry-backoff-ms:1000}") long retryBackoffMillis,
+                       MeterRegistry meterRegistry) throws IOException {
+        Path path = Paths.get(directory);
+        this.producer = producer;
+        this.orderLog = new OrderLog(path, Math.toIntExact(segmentSize.toBytes()), maxSegments);
+        this.logId = logId(path.resolve("outbox.id"));
+        this.checkpoint = FileChannel.open(path.resolve("relayed.checkpoint"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.relayedSequence = loadCheckpoint();
+        this.batchSize = batchSize;
+        this.retryBackoffMillis = retryBackoffMillis;
+
+        Timer fsync = Timer.builder("inventory.outbox.fsync")
+                .description("Time to force a group of appended orders to disk")
+                .register(meterRegistry);
+        DistributionSummary groupSize = DistributionSummary.builder("inventory.outbox.group-size")
+                .description("Orders made durable by one fsync")
+                .register(meterRegistry);
+        this.relayFailures = Counter.builder("inventory.outbox.relay.failures").register(meterRegistry);
+        Gauge.builder("inventory.outbox.pending", () -> orderLog.durableSequence() - relayedSequence)
+                .description("Orders on disk that haven't been acknowledged by Kafka yet")
+                .register(meterRegistry);
+        Gauge.builder("inventory.outbox.segments", orderLog::segmentCount).register(meterRegistry);
+
+        this.relay = new Thread(this::relayLoop, "order-outbox-relay");
+        orderLog.setFlushListener((durable, records, nanos) -> {
+            fsync.record(nanos, TimeUnit.NANOSECONDS);
+            groupSize.record(records);
+            LockSupport.unpark(relay);
+        });
+        relay.setDaemon(true);
+        relay.start();
+    }
+
+    // Completes once the order is on disk; from then on it is the relay's job to get it to Kafka
+    public CompletableFuture<Long> append(ProducerRecord<String, OrderEvent> record) {
+        ProducerRecord<String, byte[]> serialized = new ProducerRecord<>(record.topic(), record.key(),
+                serializer.serialize(record.topic(), record.value()));
+        for (Header header : record.headers()) {
+            serialized.headers().add(header);
+        }
+        return orderLog.append(serialized);
+    }
+
+    private void relayLoop() {
+        long next = relayedSequence + 1;
+        while (running) {
+            List<OrderLog.Entry> batch;
+            try {
+                batch = orderLog.read(next, batchSize);
+            } catch (RuntimeException e) {
+                relayFailures.increment();
+                log.error("Failed to read orders from {} in the order log", next, e);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryBackoffMillis));
+                continue;
+            }
+            if (batch.isEmpty()) {
+                // Woken up by the next flush
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                continue;
+            }
+
+            byte[] relayedAt = String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8);
+            for (OrderLog.Entry entry : batch) {
+                entry.getRecord().headers()
+                        .add(DEDUP_KEY_HEADER, (logId + "-" + entry.getSequence()).getBytes(StandardCharsets.UTF_8))
+                        .add(RELAYED_AT_HEADER, relayedAt);
+            }
+            if (!relay(batch)) {
+                return;
+            }
+
+            long last = batch.get(batch.size() - 1).getSequence();
+            try {
+                storeCheckpoint(last);
+            } catch (IOException e) {
+                log.error("Failed to store the outbox checkpoint", e);
+            }
+            relayedSequence = last;
+            orderLog.truncate(last);
+            next = last + 1;
+        }
+    }
+
+    // Sends the batch until Kafka has acknowledged all of it. After a failure everything from the first record
+    // that wasn't acknowledged is sent again, in order, so an order never lands behind a later one with the same
+    // key: the producer keeps each partition in order and nothing is sent past a record it refused outright.
+    // Later records that did make it the first time are sent twice; consumers drop the copies by dedup key.
+    // False when the outbox is closing, in which case the batch goes again after the restart
+    private boolean relay(List<OrderLog.Entry> batch) {
+        int from = 0;
+        while (running) {
+            List<CompletableFuture<RecordMetadata>> acks = new ArrayList<>(batch.size() - from);
+            for (int i = from; i < batch.size(); i++) {
+                CompletableFuture<RecordMetadata> ack = producer.send(batch.get(i).getRecord());
+                acks.add(ack);
+                if (ack.isCompletedExceptionally()) {
+                    break;
+                }
+            }
+            int acknowledged = 0;
+            Throwable failure = null;
+            for (CompletableFuture<RecordMetadata> ack : acks) {
+                try {
+                    ack.get();
+                    if (failure == null) {
+                        acknowledged++;
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            from += acknowledged;
+            if (from == batch.size()) {
+                return true;
+            }
+            relayFailures.increment();
+            log.warn("Failed to relay {} of {} orders, sending them again from sequence {}: {}", batch.size() - from,
+                    batch.size(), batch.get(from).getSequence(), failure.getMessage());
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryBackoffMillis));
+        }
+        return false;
+    }
+
+    private static String logId(Path file) throws IOException {
+        // Identifies this log in dedup keys, so sequences from different logs never collide
+        if (Files.exists(file)) {
+            return new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+        }
+        String id = UUID.randomUUID().toString();
+        Files.write(file, id.getBytes(StandardCharsets.US_ASCII), StandardOpenOption.CREATE_NEW, StandardOpenOption.SYNC);
+        return id;
+    }
+
+    // The checkpoint holds the last relayed sequence followed by its complement, which catches a torn write
+    private long loadCheckpoint() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        checkpoint.read(buffer, 0);
+        if (buffer.position() < 16 || buffer.getLong(0) != ~buffer.getLong(8)) {
+            // Relay everything still in the log; consumers drop what they have already seen by dedup key
+            return orderLog.firstSequence() - 1;
+        }
+        return buffer.getLong(0);
+    }
+
+    private void storeCheckpoint(long sequence) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16).putLong(sequence).putLong(~sequence);
+        buffer.flip();
+        checkpoint.write(buffer, 0);
+        checkpoint.force(false);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(relay);
+        try {
+            relay.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        orderLog.close();
+        checkpoint.close();
+    }
+}
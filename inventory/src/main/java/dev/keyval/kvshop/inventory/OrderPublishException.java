@@ -0,0 +1,12 @@
+package dev.keyval.kvshop.inventory;
+
+public class OrderPublishException extends RuntimeException {
+
+    public OrderPublishException(String message) {
+        super(message);
+    }
+
+    public OrderPublishException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
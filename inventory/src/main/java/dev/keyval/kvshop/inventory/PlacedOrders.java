@@ -0,0 +1,94 @@
+package dev.keyval.kvshop.inventory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+// Remembers recently placed orders by order id, so a checkout retried after an ambiguous failure (the caller
+// timed out, but the order went through) gets the original answer instead of reserving the stock and
+// publishing the order a second time. Retries that arrive while the order is still being placed wait for it.
+// Carts that were turned away reserved nothing, so they are forgotten and can be tried again
+@Service
+public class PlacedOrders {
+
+    private final Cache<Long, Entry> orders;
+    private final Counter replayed;
+
+    @Autowired
+    public PlacedOrders(@Value("${inventory.checkout.idempotency.maximum-size:100000}") long maximumSize,
+                        @Value("${inventory.checkout.idempotency.ttl:2h}") Duration ttl,
+                        MeterRegistry meterRegistry) {
+        this.orders = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttl).recordStats().<Long, Entry>build(),
+                "placed-orders");
+        this.replayed = Counter.builder("inventory.checkout.replayed").register(meterRegistry);
+    }
+
+    // Runs placement unless orderId was placed before, in which case that outcome is returned. An order id
+    // placed with a different cart is a conflict
+    public CompletableFuture<ResponseEntity<String>> place(long orderId, List<OrderLine> lines,
+                                                           Supplier<CompletableFuture<ResponseEntity<String>>> placement) {
+        Entry entry = new Entry(fingerprint(lines));
+        Entry placed = orders.asMap().putIfAbsent(orderId, entry);
+        if (placed != null) {
+            if (!placed.fingerprint.equals(entry.fingerprint)) {
+                return CompletableFuture.completedFuture(
+                        ResponseEntity.status(HttpStatus.CONFLICT).body("Order " + orderId + " was placed with a different cart"));
+            }
+            replayed.increment();
+            // Every caller gets its own copy, so one caller's timeout doesn't reach the others
+            return placed.result.copy();
+        }
+
+        CompletableFuture<ResponseEntity<String>> result;
+        try {
+            result = placement.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((response, exception) -> {
+            if (exception != null || !response.getStatusCode().is2xxSuccessful()) {
+                orders.asMap().remove(orderId, entry);
+            }
+            if (exception != null) {
+                entry.result.completeExceptionally(exception);
+            } else {
+                entry.result.complete(response);
+            }
+        });
+        return entry.result.copy();
+    }
+
+    private static String fingerprint(List<OrderLine> lines) {
+        List<OrderLine> sorted = new ArrayList<>(lines);
+        sorted.sort(Comparator.comparingInt(OrderLine::getProductId));
+        StringBuilder fingerprint = new StringBuilder();
+        for (OrderLine line : sorted) {
+            fingerprint.append(line.getProductId()).append('x').append(line.getQuantity()).append(',');
+        }
+        return fingerprint.toString();
+    }
+
+    private static class Entry {
+        private final String fingerprint;
+        private final CompletableFuture<ResponseEntity<String>> result = new CompletableFuture<>();
+
+        Entry(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+}
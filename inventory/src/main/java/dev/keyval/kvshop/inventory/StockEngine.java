@@ -0,0 +1,113 @@
+package dev.keyval.kvshop.inventory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Per-product stock counts. Every product has its own counter, so purchases of different
+// products never contend and purchases of the same product are serialized by a CAS loop only
+@Service
+public class StockEngine {
+
+    public enum Reservation {
+        RESERVED,
+        OUT_OF_STOCK,
+        UNKNOWN_PRODUCT
+    }
+
+    private final Map<Integer, AtomicInteger> stock = new ConcurrentHashMap<>();
+    private final Counter reserved;
+    private final Counter outOfStock;
+
+    public StockEngine(MeterRegistry meterRegistry) {
+        this.reserved = Counter.builder("inventory.reservations").tag("outcome", "reserved").register(meterRegistry);
+        this.outOfStock = Counter.builder("inventory.reservations").tag("outcome", "out_of_stock").register(meterRegistry);
+    }
+
+    public void setStock(int productId, int quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Stock can't be negative");
+        }
+        stock.computeIfAbsent(productId, id -> new AtomicInteger()).set(quantity);
+    }
+
+    // Takes quantity units out of stock, or nothing at all if fewer are available, so stock never goes negative
+    public Reservation reserve(int productId, int quantity) {
+        AtomicInteger available = stock.get(productId);
+        if (available == null) {
+            return Reservation.UNKNOWN_PRODUCT;
+        }
+        int current;
+        do {
+            current = available.get();
+            if (current < quantity) {
+                outOfStock.increment();
+                return Reservation.OUT_OF_STOCK;
+            }
+        } while (!available.compareAndSet(current, current - quantity));
+        reserved.increment();
+        return Reservation.RESERVED;
+    }
+
+    // Reserves every line of a cart or none of them. Lines are taken in product id order and, as soon as one
+    // can't be reserved, the ones already taken are put back; the result names the product that failed
+    public CartReservation reserveAll(List<OrderLine> lines) {
+        List<OrderLine> sorted = new ArrayList<>(lines);
+        sorted.sort(Comparator.comparingInt(OrderLine::getProductId));
+        for (int i = 0; i < sorted.size(); i++) {
+            OrderLine line = sorted.get(i);
+            Reservation reservation = reserve(line.getProductId(), line.getQuantity());
+            if (reservation != Reservation.RESERVED) {
+                releaseAll(sorted.subList(0, i));
+                return new CartReservation(reservation, line.getProductId());
+            }
+        }
+        return new CartReservation(Reservation.RESERVED, -1);
+    }
+
+    public void releaseAll(List<OrderLine> lines) {
+        for (OrderLine line : lines) {
+            release(line.getProductId(), line.getQuantity());
+        }
+    }
+
+    // Puts back a reservation that could not be completed
+    public void release(int productId, int quantity) {
+        AtomicInteger available = stock.get(productId);
+        if (available != null) {
+            available.addAndGet(quantity);
+        }
+    }
+
+    // -1 for products that aren't stocked at all
+    public int available(int productId) {
+        AtomicInteger available = stock.get(productId);
+        return available == null ? -1 : available.get();
+    }
+
+    public static class CartReservation {
+        private final Reservation outcome;
+        private final int productId;
+
+        CartReservation(Reservation outcome, int productId) {
+            this.outcome = outcome;
+            this.productId = productId;
+        }
+
+        public Reservation getOutcome() {
+            return outcome;
+        }
+
+        // The product that couldn't be reserved, -1 if the whole cart was
+        public int getProductId() {
+            return productId;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package dev.keyval.kvshop.inventory;
+
+public class StockLevel {
+    private int id;
+    private int available;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public int getAvailable() {
+        return available;
+    }
+
+    public void setAvailable(int available) {
+        this.available = available;
+    }
+
+    public StockLevel() {
+    }
+
+    public StockLevel(int id, int available) {
+        this.id = id;
+        this.available = available;
+    }
+}
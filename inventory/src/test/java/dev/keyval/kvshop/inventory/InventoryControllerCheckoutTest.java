@@ -0,0 +1,122 @@
+package dev.keyval.kvshop.inventory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class InventoryControllerCheckoutTest {
+
+    private static final int INITIAL_QUANTITY = 1000;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final StockEngine stockEngine = new StockEngine(meterRegistry);
+    private final OrderOutbox outbox = mock(OrderOutbox.class);
+    private final List<CompletableFuture<Long>> appends = new ArrayList<>();
+    private HotItemGate hotItemGate;
+    private InventoryController controller;
+
+    @BeforeEach
+    void setUp() {
+        when(outbox.append(any())).thenAnswer(invocation -> {
+            CompletableFuture<Long> append = new CompletableFuture<>();
+            appends.add(append);
+            return append;
+        });
+        hotItemGate = new HotItemGate(Set.of(12), 4, 100, 200, meterRegistry);
+        controller = new InventoryController(outbox, stockEngine, new Catalog(new ObjectMapper()), new ObjectMapper(),
+                hotItemGate, new LockSimulator("", 1000), new PlacedOrders(1000, Duration.ofHours(1), meterRegistry),
+                INITIAL_QUANTITY, 1000, 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        hotItemGate.shutdown();
+    }
+
+    @Test
+    void retryAfterTimedOutAttemptPlacesTheOrderOnce() throws Exception {
+        CompletableFuture<ResponseEntity<String>> first = controller.checkout(cart(7, item(3, 1), item(1, 2)), null);
+        // The caller gives up while the order is still being written to the outbox
+        assertThatThrownBy(() -> first.get(50, TimeUnit.MILLISECONDS)).isInstanceOf(TimeoutException.class);
+
+        CompletableFuture<ResponseEntity<String>> retryInFlight = controller.checkout(cart(7, item(1, 2), item(3, 1)), null);
+        assertThat(retryInFlight).isNotDone();
+
+        appends.get(0).complete(1L);
+        assertThat(first.get(1, TimeUnit.SECONDS).getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(retryInFlight.get(1, TimeUnit.SECONDS).getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        ResponseEntity<String> retryAfter = controller.checkout(cart(7, item(1, 2), item(3, 1)), null).get(1, TimeUnit.SECONDS);
+        assertThat(retryAfter.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        // One reservation and one event for the warehouse to count
+        verify(outbox, times(1)).append(any());
+        assertThat(stockEngine.available(1)).isEqualTo(INITIAL_QUANTITY - 2);
+        assertThat(stockEngine.available(3)).isEqualTo(INITIAL_QUANTITY - 1);
+    }
+
+    @Test
+    void retryAfterFailedAttemptPlacesTheOrderAgain() throws Exception {
+        CompletableFuture<ResponseEntity<String>> first = controller.checkout(cart(8, item(1, 2)), null);
+        appends.get(0).completeExceptionally(new IOException("disk full"));
+        assertThat(first.get(1, TimeUnit.SECONDS).getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(stockEngine.available(1)).isEqualTo(INITIAL_QUANTITY);
+
+        CompletableFuture<ResponseEntity<String>> retry = controller.checkout(cart(8, item(1, 2)), null);
+        appends.get(1).complete(1L);
+        assertThat(retry.get(1, TimeUnit.SECONDS).getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        verify(outbox, times(2)).append(any());
+        assertThat(stockEngine.available(1)).isEqualTo(INITIAL_QUANTITY - 2);
+    }
+
+    @Test
+    void orderIdReusedForDifferentCartIsRejected() throws Exception {
+        CompletableFuture<ResponseEntity<String>> first = controller.checkout(cart(9, item(1, 2)), null);
+        appends.get(0).complete(1L);
+        assertThat(first.get(1, TimeUnit.SECONDS).getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        ResponseEntity<String> other = controller.checkout(cart(9, item(1, 3)), null).get(1, TimeUnit.SECONDS);
+        assertThat(other.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+        verify(outbox, times(1)).append(any());
+        assertThat(stockEngine.available(1)).isEqualTo(INITIAL_QUANTITY - 2);
+    }
+
+    private static CheckoutRequest cart(long orderId, CheckoutRequest.Item... items) {
+        CheckoutRequest request = new CheckoutRequest();
+        request.setOrderId(orderId);
+        request.setCurrency("USD");
+        request.setItems(List.of(items));
+        return request;
+    }
+
+    private static CheckoutRequest.Item item(int id, int quantity) {
+        CheckoutRequest.Item item = new CheckoutRequest.Item();
+        item.setId(id);
+        item.setQuantity(quantity);
+        item.setPrice(9.99);
+        return item;
+    }
+}
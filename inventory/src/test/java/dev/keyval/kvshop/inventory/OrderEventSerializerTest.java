@@ -0,0 +1,48 @@
+package dev.keyval.kvshop.inventory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// The warehouse's OrderEventDecoderTest decodes the same bytes these tests expect
+class OrderEventSerializerTest {
+
+    private final OrderEventSerializer serializer = new OrderEventSerializer();
+
+    @Test
+    void writesSingleItemOrdersAsVersion1() {
+        OrderEvent event = new OrderEvent(42, 7, 3, 1999, "USD", 1_700_000_000_000L);
+
+        assertThat(HexFormat.of().formatHex(serializer.serialize("orders", event))).isEqualTo("ce01"
+                + "000000000000002a" + "00000007" + "00000003" + "00000000000007cf" + "555344" + "0000018bcfe56800");
+    }
+
+    @Test
+    void writesCartsAsVersion2() {
+        OrderEvent event = new OrderEvent(43, List.of(new OrderLine(7, 1, 500), new OrderLine(9, 2, 250)), "EUR",
+                1_700_000_000_000L);
+
+        assertThat(HexFormat.of().formatHex(serializer.serialize("orders", event))).isEqualTo("ce02"
+                + "000000000000002b" + "455552" + "0000018bcfe56800" + "0002"
+                + "00000007" + "00000001" + "00000000000001f4" + "00000009" + "00000002" + "00000000000000fa");
+    }
+
+    @Test
+    void writesOneLineCartsAsVersion1() {
+        OrderEvent cart = new OrderEvent(42, List.of(new OrderLine(7, 3, 1999)), "USD", 1_700_000_000_000L);
+        OrderEvent single = new OrderEvent(42, 7, 3, 1999, "USD", 1_700_000_000_000L);
+
+        assertThat(serializer.serialize("orders", cart)).isEqualTo(serializer.serialize("orders", single));
+    }
+
+    @Test
+    void rejectsCurrenciesThatAreNotThreeLetters() {
+        OrderEvent event = new OrderEvent(42, 7, 3, 1999, "EURO", 1_700_000_000_000L);
+
+        assertThatThrownBy(() -> serializer.serialize("orders", event)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,100 @@
+package dev.keyval.kvshop.inventory;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OrderLogTest {
+
+    @TempDir
+    Path directory;
+
+    // Fails as many forces as failures holds, then forces for real
+    private final AtomicInteger failures = new AtomicInteger();
+    private final Consumer<MappedByteBuffer> force = buffer -> {
+        if (failures.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+            throw new UncheckedIOException(new IOException("injected force failure"));
+        }
+        buffer.force();
+    };
+
+    @Test
+    void failedForceNeverMakesTheOrdersDurable() throws Exception {
+        try (OrderLog orderLog = new OrderLog(directory, 4096, 4, force)) {
+            assertThat(orderLog.append(record("a")).get(5, TimeUnit.SECONDS)).isEqualTo(1L);
+
+            failures.set(Integer.MAX_VALUE);
+            CompletableFuture<Long> b = orderLog.append(record("b"));
+            CompletableFuture<Long> c = orderLog.append(record("c"));
+            assertThatThrownBy(() -> b.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(OrderPublishException.class);
+            assertThatThrownBy(() -> c.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(OrderPublishException.class);
+            assertThat(orderLog.durableSequence()).isEqualTo(1L);
+            assertThat(orderLog.nextSequence()).isEqualTo(2L);
+
+            // The next successful flush covers only what was appended after the failure
+            failures.set(0);
+            assertThat(orderLog.append(record("d")).get(5, TimeUnit.SECONDS)).isEqualTo(2L);
+            assertThat(values(orderLog.read(1, 10))).containsExactly("a", "d");
+        }
+
+        try (OrderLog reopened = new OrderLog(directory, 4096, 4, force)) {
+            assertThat(reopened.nextSequence()).isEqualTo(3L);
+            assertThat(values(reopened.read(1, 10))).containsExactly("a", "d");
+        }
+    }
+
+    @Test
+    void failedForceTakesBackSegmentsCreatedAfterIt() throws Exception {
+        try (OrderLog orderLog = new OrderLog(directory, 256, 8, force)) {
+            orderLog.append(record("a")).get(5, TimeUnit.SECONDS);
+
+            failures.set(Integer.MAX_VALUE);
+            CompletableFuture<?>[] failed = new CompletableFuture<?>[10];
+            for (int i = 0; i < failed.length; i++) {
+                failed[i] = orderLog.append(record("x" + i));
+            }
+            for (CompletableFuture<?> append : failed) {
+                assertThat(append).failsWithin(5, TimeUnit.SECONDS);
+            }
+            assertThat(orderLog.segmentCount()).isEqualTo(1);
+
+            failures.set(0);
+            assertThat(orderLog.append(record("b")).get(5, TimeUnit.SECONDS)).isEqualTo(2L);
+            assertThat(values(orderLog.read(1, 10))).containsExactly("a", "b");
+        }
+    }
+
+    @Test
+    void transientForceFailureIsRetried() throws Exception {
+        try (OrderLog orderLog = new OrderLog(directory, 4096, 4, force)) {
+            failures.set(1);
+            assertThat(orderLog.append(record("a")).get(5, TimeUnit.SECONDS)).isEqualTo(1L);
+            assertThat(values(orderLog.read(1, 10))).containsExactly("a");
+        }
+    }
+
+    private static ProducerRecord<String, byte[]> record(String value) {
+        return new ProducerRecord<>("orders", "key", value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> values(List<OrderLog.Entry> entries) {
+        return entries.stream().map(entry -> new String(entry.getRecord().value(), StandardCharsets.UTF_8)).toList();
+    }
+}
@@ -0,0 +1,29 @@
+package dev.keyval.kvshop.pricing;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+@ConditionalOnProperty(name = "pricing.lookup-mode", havingValue = "async")
+public class AsyncLookupConfig {
+
+    // Bounded in threads and queue, unlike the RxJava io scheduler lookups used to hop to
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService priceLookupExecutor(@Value("${pricing.async.threads:16}") int threads,
+                                               @Value("${pricing.async.queue-capacity:1000}") int queueCapacity) {
+        return new ThreadPoolExecutor(
+                threads, threads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("price-lookup-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+}
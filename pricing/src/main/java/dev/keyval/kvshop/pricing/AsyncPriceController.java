@@ -0,0 +1,45 @@
+package dev.keyval.kvshop.pricing;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+// pricing.lookup-mode=async: for price sources that are slow to answer. The request thread is released
+// right away and the lookup runs on the bounded priceLookupExecutor, failing with 503 when that's full or too slow
+@RestController
+@ConditionalOnProperty(name = "pricing.lookup-mode", havingValue = "async")
+public class AsyncPriceController {
+
+    private final PriceStore priceStore;
+    private final Executor priceLookupExecutor;
+    private final long timeoutMillis;
+
+    public AsyncPriceController(PriceStore priceStore,
+                                @Qualifier("priceLookupExecutor") Executor priceLookupExecutor,
+                                @Value("${pricing.async.timeout-ms:1000}") long timeoutMillis) {
+        this.priceStore = priceStore;
+        this.priceLookupExecutor = priceLookupExecutor;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @GetMapping("/price")
+    public DeferredResult<ResponseEntity<PriceResult>> getPrice(@RequestParam int id) {
+        DeferredResult<ResponseEntity<PriceResult>> result = new DeferredResult<>(timeoutMillis,
+                () -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+        try {
+            priceLookupExecutor.execute(() -> result.setResult(PricingController.priceResponse(priceStore.snapshot(), id)));
+        } catch (RejectedExecutionException e) {
+            result.setResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,96 @@
+package dev.keyval.kvshop.pricing;
+
+import java.util.Arrays;
+
+// Open-addressing map from int keys to double values. Lookups don't box or allocate.
+// Not thread safe for writes; PriceStore only publishes maps that are no longer written to
+public class IntDoubleMap {
+
+    private static final int FREE = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private double[] values;
+    private int size;
+
+    public IntDoubleMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        this.keys = new int[capacity];
+        this.values = new double[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    public IntDoubleMap(IntDoubleMap other) {
+        this.keys = other.keys.clone();
+        this.values = other.values.clone();
+        this.size = other.size;
+    }
+
+    // Integer.MIN_VALUE marks free slots, so it can't be a key
+    public static boolean isSupportedKey(int key) {
+        return key != FREE;
+    }
+
+    public double get(int key, double missingValue) {
+        if (key == FREE) {
+            // It would match the first free slot it probes
+            return missingValue;
+        }
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int candidate = keys[slot];
+            if (candidate == key) {
+                return values[slot];
+            }
+            if (candidate == FREE) {
+                return missingValue;
+            }
+        }
+    }
+
+    public void put(int key, double value) {
+        if (!isSupportedKey(key)) {
+            throw new IllegalArgumentException("Unsupported key " + key);
+        }
+        // Keep the load factor at or below one half so probe sequences stay short
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            if (keys[slot] == FREE) {
+                keys[slot] = key;
+                values[slot] = value;
+                size++;
+                return;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        double[] oldValues = values;
+        keys = new int[capacity];
+        values = new double[capacity];
+        Arrays.fill(keys, FREE);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    // Spreads sequential ids across the table
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,24 @@
+package dev.keyval.kvshop.pricing;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+// pricing.lookup-mode=direct: prices are in memory, so they are looked up on the request thread
+@RestController
+@ConditionalOnProperty(name = "pricing.lookup-mode", havingValue = "direct", matchIfMissing = true)
+public class PriceController {
+
+    private final PriceStore priceStore;
+
+    public PriceController(PriceStore priceStore) {
+        this.priceStore = priceStore;
+    }
+
+    @GetMapping("/price")
+    public ResponseEntity<PriceResult> getPrice(@RequestParam int id) {
+        return PricingController.priceResponse(priceStore.snapshot(), id);
+    }
+}
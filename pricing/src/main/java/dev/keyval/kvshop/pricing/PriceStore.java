@@ -0,0 +1,106 @@
+package dev.keyval.kvshop.pricing;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+// Prices by product id, loaded from a "id,price" CSV file at startup. Updates build a new map with
+// the next version and swap it in, so reads never lock and always see one consistent version
+@Service
+public class PriceStore {
+
+    private volatile Snapshot snapshot;
+
+    @Autowired
+    public PriceStore(@Value("${pricing.prices-file:classpath:prices.csv}") Resource pricesFile) {
+        this.snapshot = new Snapshot(1, load(pricesFile));
+    }
+
+    public PriceStore(IntDoubleMap prices) {
+        this.snapshot = new Snapshot(1, prices);
+    }
+
+    // NaN for products without a price
+    public double price(int id) {
+        return snapshot.prices.get(id, Double.NaN);
+    }
+
+    public long version() {
+        return snapshot.version;
+    }
+
+    // Reads that need several prices from the same version should go through one snapshot
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    public long update(Map<Integer, Double> changes) {
+        return update(changes, -1);
+    }
+
+    // Applies the changes only if the store is still at expectedVersion (or any version if it's negative)
+    public synchronized long update(Map<Integer, Double> changes, long expectedVersion) {
+        if (expectedVersion >= 0 && expectedVersion != snapshot.version) {
+            throw new PriceVersionConflictException("Prices are at version " + snapshot.version + ", not " + expectedVersion);
+        }
+        IntDoubleMap prices = new IntDoubleMap(snapshot.prices);
+        for (Map.Entry<Integer, Double> change : changes.entrySet()) {
+            prices.put(change.getKey(), change.getValue());
+        }
+        snapshot = new Snapshot(snapshot.version + 1, prices);
+        return snapshot.version;
+    }
+
+    public static class Snapshot {
+        private final long version;
+        private final IntDoubleMap prices;
+
+        Snapshot(long version, IntDoubleMap prices) {
+            this.version = version;
+            this.prices = prices;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String getEtag() {
+            return "\"" + version + "\"";
+        }
+
+        public double price(int id) {
+            return prices.get(id, Double.NaN);
+        }
+    }
+
+    private static IntDoubleMap load(Resource pricesFile) {
+        IntDoubleMap prices = new IntDoubleMap(1024);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(pricesFile.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                if (comma < 0) {
+                    throw new IllegalStateException("Malformed line " + lineNumber + " in " + pricesFile + ": " + line);
+                }
+                prices.put(Integer.parseInt(line.substring(0, comma).trim()), Double.parseDouble(line.substring(comma + 1).trim()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load prices from " + pricesFile, e);
+        }
+        return prices;
+    }
+}
@@ -0,0 +1,8 @@
+package dev.keyval.kvshop.pricing;
+
+public class PriceVersionConflictException extends RuntimeException {
+
+    public PriceVersionConflictException(String message) {
+        super(message);
+    }
+}
@@ -1,33 +1,90 @@
 package dev.keyval.kvshop.pricing;
 
-import io.reactivex.rxjava3.core.Observable;
-import io.reactivex.rxjava3.schedulers.Schedulers;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Every response carries the price version as its ETag; Spring answers a matching If-None-Match with 304.
+// Single lookups (/price) are served by PriceController or AsyncPriceController, depending on pricing.lookup-mode
 @RestController
 public class PricingController {
 
-    private PriceResult getPriceFromDb(int id) {
-        System.out.println("getPriceFromDb thread: " + Thread.currentThread().getName() + "price is: " + id);
-        // Random double between 1 and 50
-        double price = Math.random() * 50 + 1;
+    private final PriceStore priceStore;
+
+    public PricingController(PriceStore priceStore) {
+        this.priceStore = priceStore;
+    }
+
+    // Shared by both /price lookup modes
+    static ResponseEntity<PriceResult> priceResponse(PriceStore.Snapshot prices, int id) {
+        if (!IntDoubleMap.isSupportedKey(id)) {
+            return ResponseEntity.badRequest().build();
+        }
+        double price = prices.price(id);
+        if (Double.isNaN(price)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().eTag(prices.getEtag()).body(new PriceResult(id, price));
+    }
+
+    @GetMapping("/prices")
+    public ResponseEntity<List<PriceResult>> getPrices(@RequestParam List<Integer> ids) {
+        // Bulk lookup, one result per known id in request order, all from the same version
+        PriceStore.Snapshot prices = priceStore.snapshot();
+        List<PriceResult> results = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            double price = prices.price(id);
+            if (!Double.isNaN(price)) {
+                results.add(new PriceResult(id, price));
+            }
+        }
+        return ResponseEntity.ok().eTag(prices.getEtag()).body(results);
+    }
 
-        // Round to 2 decimal places
-        price = Math.round(price * 100.0) / 100.0;
+    @PostMapping("/prices")
+    public ResponseEntity<List<PriceResult>> postPrices(@RequestBody List<Integer> ids) {
+        return getPrices(ids);
+    }
 
-        return new PriceResult(id, price);
+    // Sets the given prices as one new version. With If-Match, only if nothing changed since that version
+    @PutMapping("/prices")
+    public ResponseEntity<String> updatePrices(@RequestBody List<PriceResult> changes,
+                                               @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Map<Integer, Double> prices = new HashMap<>();
+        for (PriceResult change : changes) {
+            if (!IntDoubleMap.isSupportedKey(change.getId())) {
+                return ResponseEntity.badRequest().body("Invalid product id " + change.getId());
+            }
+            if (!(change.getPrice() >= 0) || Double.isInfinite(change.getPrice())) {
+                return ResponseEntity.badRequest().body("Invalid price for product " + change.getId());
+            }
+            prices.put(change.getId(), change.getPrice());
+        }
+        try {
+            long version = priceStore.update(prices, ifMatch == null ? -1 : parseVersion(ifMatch));
+            return ResponseEntity.noContent().eTag("\"" + version + "\"").build();
+        } catch (PriceVersionConflictException | NumberFormatException e) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(e.getMessage());
+        }
     }
 
-    @GetMapping("/price")
-    public PriceResult getPrice(@RequestParam int id) {
-        System.out.println("Current thread: " + Thread.currentThread().getName());
-        // Use RxJava to fetch price asynchronously from db and block until result is available
-        return Observable.just(id)
-                .map(price -> price * 10)
-                .map(this::getPriceFromDb)
-            .subscribeOn(Schedulers.io())
-            .blockingSingle();
+    private static long parseVersion(String etag) {
+        String version = etag.trim();
+        if (version.startsWith("W/")) {
+            version = version.substring(2);
+        }
+        return Long.parseLong(version.replace("\"", ""));
     }
 }
@@ -1,11 +1,24 @@
 package io.odigos.kvMall;
 
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -13,30 +26,100 @@ import java.util.Map;
  * Hello world!
  *
  */
-public class App 
+public class App
 {
 
     private static final String KAFKA_SERVERS = "kafka-service.kv-mall-infra:9092";
     private static final Logger logger = LoggerFactory.getLogger(App.class);
-    public static void main( String[] args )
+    public static void main( String[] args ) throws IOException
     {
         logger.info("Starting warehouse application");
-        KafkaConsumer<String, String> consumer = createConsumer();
+        KafkaConsumer<String, byte[]> consumer = createConsumer();
+        Thread mainThread = Thread.currentThread();
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             logger.info("Shutting down consumer");
             consumer.wakeup();
+            try {
+                // Let the consumer commit what it has processed before the JVM exits
+                mainThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }));
 
-        WarehouseConsumer warehouseConsumer = new WarehouseConsumer(consumer);
-        warehouseConsumer.consume();
+        // Sales aggregates live off-heap and are snapshotted with the offsets at every commit, so a restart
+        // picks up from the last snapshot instead of re-reading the topic
+        SalesStore salesStore = new SalesStore(
+                envInt("SALES_MAX_PRODUCTS", 1024),
+                envInt("SALES_WINDOWS", 60),
+                envInt("SALES_WINDOW_SECONDS", 60) * 1000L,
+                envInt("SALES_DEDUP_WINDOW", 100000));
+        SalesSnapshots salesSnapshots = new SalesSnapshots(
+                Paths.get(envString("STATE_DIR", System.getProperty("java.io.tmpdir") + "/warehouse-state")), salesStore);
+
+        // Order latency per stage, consumer lag and JVM metrics, scraped from /metrics
+        PrometheusMeterRegistry meterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        new JvmMemoryMetrics().bindTo(meterRegistry);
+        new JvmGcMetrics().bindTo(meterRegistry);
+        new ProcessorMetrics().bindTo(meterRegistry);
+        WarehouseHttpServer httpServer = new WarehouseHttpServer(envInt("HTTP_PORT", 8080), salesStore, meterRegistry);
+
+        // Records that still fail after a few tries are kept here instead of being skipped
+        KafkaDeadLetters deadLetters = new KafkaDeadLetters(createProducer(),
+                envString("DEAD_LETTER_TOPIC", "orders-dead-letter"), Duration.ofSeconds(10));
+        WarehouseConsumer warehouseConsumer = new WarehouseConsumer(
+                consumer,
+                new OrderRecordHandler(salesStore, meterRegistry),
+                deadLetters,
+                salesSnapshots,
+                envInt("WORKER_THREADS", Runtime.getRuntime().availableProcessors()),
+                Duration.ofMillis(envInt("POLL_TIMEOUT_MS", 100)),
+                envInt("COMMIT_INTERVAL_MS", 1000),
+                meterRegistry);
+        try {
+            warehouseConsumer.consume();
+        } finally {
+            deadLetters.close();
+            httpServer.close();
+        }
     }
 
-    private static KafkaConsumer<String, String> createConsumer() {
+    private static KafkaConsumer<String, byte[]> createConsumer() {
         Map<String, Object> props = new HashMap<>();
-        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, KAFKA_SERVERS);
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, envString("KAFKA_SERVERS", KAFKA_SERVERS));
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, "warehouse");
+
+        // Offsets are committed by WarehouseConsumer once records have been processed
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, envInt("MAX_POLL_RECORDS", 500));
+        props.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, envInt("MAX_POLL_INTERVAL_MS", 300000));
+        props.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, envInt("FETCH_MIN_BYTES", 1));
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, envInt("FETCH_MAX_WAIT_MS", 500));
+        props.put(ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG, envInt("MAX_PARTITION_FETCH_BYTES", 1048576));
         return new KafkaConsumer<>(props);
     }
+
+    private static KafkaProducer<String, byte[]> createProducer() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, envString("KAFKA_SERVERS", KAFKA_SERVERS));
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, 5000);
+        props.put(ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG, 10000);
+        props.put(ProducerConfig.REQUEST_TIMEOUT_MS_CONFIG, 5000);
+        return new KafkaProducer<>(props);
+    }
+
+    private static String envString(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    private static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
 }
@@ -0,0 +1,14 @@
+package io.odigos.kvMall;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+// Where records go that still fail after being retried, so they are kept for someone to look at and the
+// partition can move on past them
+public interface DeadLetters {
+
+    // Keeps nothing: a record that can't be handled is read again until it can
+    DeadLetters NONE = (record, failure) -> false;
+
+    // Called from worker threads. True once the record has been stored
+    boolean send(ConsumerRecord<String, byte[]> record, Exception failure);
+}
@@ -0,0 +1,57 @@
+package io.odigos.kvMall;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Copies failed records to a dead-letter topic with their key, value and headers, adding where they came from
+// and why they failed
+public class KafkaDeadLetters implements DeadLetters, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(KafkaDeadLetters.class);
+
+    private final Producer<String, byte[]> producer;
+    private final String topic;
+    private final Duration timeout;
+
+    public KafkaDeadLetters(Producer<String, byte[]> producer, String topic, Duration timeout) {
+        this.producer = producer;
+        this.topic = topic;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public boolean send(ConsumerRecord<String, byte[]> record, Exception failure) {
+        ProducerRecord<String, byte[]> deadLetter = new ProducerRecord<>(topic, record.key(), record.value());
+        for (Header header : record.headers()) {
+            deadLetter.headers().add(header);
+        }
+        deadLetter.headers()
+                .add("dead-letter-source", (record.topic() + "-" + record.partition() + "@" + record.offset()).getBytes(StandardCharsets.UTF_8))
+                .add("dead-letter-error", String.valueOf(failure).getBytes(StandardCharsets.UTF_8));
+        try {
+            producer.send(deadLetter).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("Failed to send record {}-{}@{} to {}: {}", record.topic(), record.partition(), record.offset(), topic, e.toString());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        producer.close(timeout);
+    }
+}
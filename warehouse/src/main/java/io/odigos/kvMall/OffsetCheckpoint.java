@@ -0,0 +1,29 @@
+package io.odigos.kvMall;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Map;
+
+// Local state that is saved together with the consumer's offsets, so after a restart consumption
+// resumes exactly where the saved state left off
+public interface OffsetCheckpoint {
+
+    OffsetCheckpoint NONE = new OffsetCheckpoint() {
+        @Override
+        public void save(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        }
+
+        @Override
+        public Long restoredOffset(TopicPartition partition) {
+            return null;
+        }
+    };
+
+    // Called on the polling thread with the offsets about to be committed, once every record before them
+    // has been handled and while no worker is running
+    void save(Map<TopicPartition, OffsetAndMetadata> offsets);
+
+    // Where the saved state continues in the partition, or null when it has nothing for it
+    Long restoredOffset(TopicPartition partition);
+}
@@ -0,0 +1,57 @@
+package io.odigos.kvMall;
+
+import java.util.Collections;
+import java.util.List;
+
+public class OrderEvent {
+    private final int version;
+    private final long orderId;
+    private final List<OrderLine> lines;
+    private final String currency;
+    private final long timestampMillis;
+
+    public OrderEvent(int version, long orderId, int productId, int quantity, long priceMinor, String currency,
+                      long timestampMillis) {
+        this(version, orderId, Collections.singletonList(new OrderLine(productId, quantity, priceMinor)), currency, timestampMillis);
+    }
+
+    public OrderEvent(int version, long orderId, List<OrderLine> lines, String currency, long timestampMillis) {
+        this.version = version;
+        this.orderId = orderId;
+        this.lines = lines;
+        this.currency = currency;
+        this.timestampMillis = timestampMillis;
+    }
+
+    // 0 for legacy text events
+    public int getVersion() {
+        return version;
+    }
+
+    public boolean isLegacy() {
+        return version == 0;
+    }
+
+    public long getOrderId() {
+        return orderId;
+    }
+
+    // One line for single item purchases, one per product for carts
+    public List<OrderLine> getLines() {
+        return lines;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "OrderEvent{version=" + version + ", orderId=" + orderId + ", lines=" + lines
+                + ", currency=" + currency + ", timestampMillis=" + timestampMillis + "}";
+    }
+}
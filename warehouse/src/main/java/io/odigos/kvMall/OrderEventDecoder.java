@@ -0,0 +1,128 @@
+package io.odigos.kvMall;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads order events straight from the record's value bytes.
+ *
+ * <p>Binary events (see inventory's OrderEventSerializer) are laid out as
+ * {@code magic(1) version(1) orderId(8) productId(4) quantity(4) priceMinor(8) currency(3) timestampMillis(8)}
+ * for single items and
+ * {@code magic(1) version(1) orderId(8) currency(3) timestampMillis(8) lineCount(2) lineCount * [productId(4) quantity(4) priceMinor(8)]}
+ * for carts.
+ * Anything that doesn't start with the magic byte is treated as a legacy text event of the form
+ * {@code "Product with id 12 has been bought"}.
+ */
+public class OrderEventDecoder {
+
+    public static final byte MAGIC = (byte) 0xCE;
+    public static final byte VERSION_1 = 1;
+    public static final byte VERSION_2 = 2;
+    private static final int VERSION_1_SIZE = 1 + 1 + 8 + 4 + 4 + 8 + 3 + 8;
+    private static final int VERSION_2_HEADER_SIZE = 1 + 1 + 8 + 3 + 8 + 2;
+    private static final int VERSION_2_LINE_SIZE = 4 + 4 + 8;
+
+    private static final byte[] LEGACY_PREFIX = "Product with id ".getBytes(StandardCharsets.US_ASCII);
+
+    public static OrderEvent decode(byte[] value, long recordTimestampMillis) {
+        if (value == null || value.length == 0) {
+            throw new IllegalArgumentException("Empty order event");
+        }
+        if (value[0] != MAGIC) {
+            return decodeLegacy(value, recordTimestampMillis);
+        }
+        if (value.length < 2) {
+            throw new IllegalArgumentException("Truncated order event");
+        }
+        if (value[1] == VERSION_1) {
+            return decodeVersion1(value);
+        }
+        if (value[1] == VERSION_2) {
+            return decodeVersion2(value);
+        }
+        throw new IllegalArgumentException("Unsupported order event version " + value[1]);
+    }
+
+    private static OrderEvent decodeVersion1(byte[] value) {
+        if (value.length < VERSION_1_SIZE) {
+            throw new IllegalArgumentException("Truncated order event: " + value.length + " bytes");
+        }
+        // Wrapping doesn't copy; fields are read in place
+        ByteBuffer buffer = ByteBuffer.wrap(value, 2, value.length - 2);
+        long orderId = buffer.getLong();
+        int productId = buffer.getInt();
+        int quantity = buffer.getInt();
+        long priceMinor = buffer.getLong();
+        String currency = currency(value, buffer.position());
+        buffer.position(buffer.position() + 3);
+        long timestampMillis = buffer.getLong();
+        return new OrderEvent(VERSION_1, orderId, productId, quantity, priceMinor, currency, timestampMillis);
+    }
+
+    private static OrderEvent decodeVersion2(byte[] value) {
+        if (value.length < VERSION_2_HEADER_SIZE) {
+            throw new IllegalArgumentException("Truncated order event: " + value.length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(value, 2, value.length - 2);
+        long orderId = buffer.getLong();
+        String currency = currency(value, buffer.position());
+        buffer.position(buffer.position() + 3);
+        long timestampMillis = buffer.getLong();
+        int lineCount = Short.toUnsignedInt(buffer.getShort());
+        if (value.length < VERSION_2_HEADER_SIZE + lineCount * VERSION_2_LINE_SIZE) {
+            throw new IllegalArgumentException("Truncated order event: " + value.length + " bytes for " + lineCount + " lines");
+        }
+        List<OrderLine> lines = new ArrayList<>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            lines.add(new OrderLine(buffer.getInt(), buffer.getInt(), buffer.getLong()));
+        }
+        return new OrderEvent(VERSION_2, orderId, lines, currency, timestampMillis);
+    }
+
+    private static OrderEvent decodeLegacy(byte[] value, long recordTimestampMillis) {
+        if (!startsWith(value, LEGACY_PREFIX)) {
+            throw new IllegalArgumentException("Unrecognized order event");
+        }
+        int productId = 0;
+        int digits = 0;
+        for (int i = LEGACY_PREFIX.length; i < value.length && value[i] >= '0' && value[i] <= '9'; i++) {
+            productId = productId * 10 + (value[i] - '0');
+            digits++;
+        }
+        if (digits == 0) {
+            throw new IllegalArgumentException("Legacy order event without a product id");
+        }
+        // Legacy events carry one item and no order id, price or currency
+        return new OrderEvent(0, 0, productId, 1, 0, "USD", recordTimestampMillis);
+    }
+
+    // Avoids allocating for the currencies we actually see
+    private static String currency(byte[] value, int offset) {
+        if (matches(value, offset, 'U', 'S', 'D')) {
+            return "USD";
+        }
+        if (matches(value, offset, 'E', 'U', 'R')) {
+            return "EUR";
+        }
+        return new String(value, offset, 3, StandardCharsets.US_ASCII);
+    }
+
+    private static boolean matches(byte[] value, int offset, char a, char b, char c) {
+        return value[offset] == a && value[offset + 1] == b && value[offset + 2] == c;
+    }
+
+    private static boolean startsWith(byte[] value, byte[] prefix) {
+        if (value.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (value[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,80 @@
+package io.odigos.kvMall;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class OrderRecordHandler implements RecordHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderRecordHandler.class);
+    private static final String DEDUP_KEY_HEADER = "dedup-key";
+
+    private final SalesStore salesStore;
+    // Timing headers stamped by the stages an order passes through before it gets here, by header name
+    private final Map<String, Timer> latencies = new LinkedHashMap<>();
+
+    public OrderRecordHandler(SalesStore salesStore, MeterRegistry meterRegistry) {
+        this.salesStore = salesStore;
+        latencies.put("frontend-received-at", latency("frontend", meterRegistry));
+        latencies.put("inventory-received-at", latency("inventory", meterRegistry));
+        latencies.put("relayed-at", latency("relay", meterRegistry));
+    }
+
+    private static Timer latency(String stage, MeterRegistry meterRegistry) {
+        return Timer.builder("warehouse.order.latency")
+                .description("Time from when an order reached the stage until the warehouse processed it")
+                .tag("since", stage)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                // Orders wait in inventory's outbox for as long as Kafka is unavailable
+                .maximumExpectedValue(Duration.ofMinutes(10))
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void handle(ConsumerRecord<String, byte[]> record) {
+        long processedAt = System.currentTimeMillis();
+        OrderEvent event = OrderEventDecoder.decode(record.value(), record.timestamp());
+        Header dedupKey = record.headers().lastHeader(DEDUP_KEY_HEADER);
+        if (!salesStore.record(event, dedupKey == null ? null : new String(dedupKey.value(), StandardCharsets.UTF_8))) {
+            logger.debug("Skipping order {} that was already counted", event.getOrderId());
+            return;
+        }
+        recordLatencies(record, processedAt);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Received order: {}", event);
+            for (Header header : record.headers()) {
+                logger.debug("Header: {} - {}", header.key(), new String(header.value(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    // Stamps come from other hosts' clocks, so one that is ahead of ours is left out rather than counted as zero
+    private void recordLatencies(ConsumerRecord<String, byte[]> record, long processedAt) {
+        for (Map.Entry<String, Timer> latency : latencies.entrySet()) {
+            Header stamp = record.headers().lastHeader(latency.getKey());
+            if (stamp == null) {
+                continue;
+            }
+            long stampedAt;
+            try {
+                stampedAt = Long.parseLong(new String(stamp.value(), StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                logger.debug("Ignoring malformed {} header on {}-{}@{}", latency.getKey(), record.topic(), record.partition(), record.offset());
+                continue;
+            }
+            if (stampedAt <= processedAt) {
+                latency.getValue().record(processedAt - stampedAt, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package io.odigos.kvMall;
+
+import java.util.List;
+
+public class ProductSales {
+    private final int productId;
+    private final long units;
+    private final long orders;
+    private final long lastOrderMillis;
+    // Oldest first, only windows with sales
+    private final List<Window> windows;
+
+    public ProductSales(int productId, long units, long orders, long lastOrderMillis, List<Window> windows) {
+        this.productId = productId;
+        this.units = units;
+        this.orders = orders;
+        this.lastOrderMillis = lastOrderMillis;
+        this.windows = windows;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public long getUnits() {
+        return units;
+    }
+
+    public long getOrders() {
+        return orders;
+    }
+
+    public long getLastOrderMillis() {
+        return lastOrderMillis;
+    }
+
+    public List<Window> getWindows() {
+        return windows;
+    }
+
+    public static class Window {
+        private final long startMillis;
+        private final long endMillis;
+        private final long units;
+
+        public Window(long startMillis, long endMillis, long units) {
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.units = units;
+        }
+
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        public long getEndMillis() {
+            return endMillis;
+        }
+
+        public long getUnits() {
+            return units;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package io.odigos.kvMall;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+public interface RecordHandler {
+
+    // Called from worker threads; records with the same key are always handled in offset order
+    void handle(ConsumerRecord<String, byte[]> record);
+}
@@ -0,0 +1,190 @@
+package io.odigos.kvMall;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Saves the {@link SalesStore} together with the offsets it covers into one of two memory-mapped
+ * snapshot files, alternating between them, so the previous snapshot is intact while the next one is
+ * written. A restart restores the newest valid snapshot and the consumer resumes from its offsets, which
+ * takes the same time however long the topic has grown. The store's dedup keys are saved too, so an order
+ * the outbox relays again after the restart still isn't counted twice.
+ *
+ * <pre>
+ * magic(4) format(4) layout(8) generation(8) crc32(4) offsetCount(4) dedupKeyCount(4) store(n)
+ * dedupKeyCount * [key(2 + n)] offsetCount * [topic(2 + n) partition(4) offset(8)]
+ * </pre>
+ *
+ * The crc covers everything after the header. Dedup keys longer than {@value #MAX_DEDUP_KEY_SIZE} bytes aren't
+ * saved; the outbox's are well under that.
+ */
+public class SalesSnapshots implements OffsetCheckpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(SalesSnapshots.class);
+    private static final int MAGIC = 0x53414C45;
+    private static final int FORMAT = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+    private static final int OFFSETS_SIZE = 64 * 1024;
+    static final int MAX_DEDUP_KEY_SIZE = 64;
+
+    private final SalesStore store;
+    private final MappedByteBuffer[] files = new MappedByteBuffer[2];
+    private final Map<TopicPartition, Long> offsets = new HashMap<>();
+    private long generation;
+    private long savedUpdates = -1;
+
+    public SalesSnapshots(Path directory, SalesStore store) throws IOException {
+        this.store = store;
+        Files.createDirectories(directory);
+        int size = HEADER_SIZE + store.byteSize() + store.dedupWindow() * (2 + MAX_DEDUP_KEY_SIZE) + OFFSETS_SIZE;
+        for (int i = 0; i < files.length; i++) {
+            try (FileChannel channel = FileChannel.open(directory.resolve("sales-" + i + ".snapshot"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                files[i] = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+        restore();
+    }
+
+    @Override
+    public synchronized void save(Map<TopicPartition, OffsetAndMetadata> committing) {
+        boolean moved = false;
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : committing.entrySet()) {
+            Long previous = offsets.put(entry.getKey(), entry.getValue().offset());
+            moved |= previous == null || previous != entry.getValue().offset();
+        }
+        long updates = store.updates();
+        if (!moved && updates == savedUpdates) {
+            return;
+        }
+
+        long next = generation + 1;
+        MappedByteBuffer file = files[(int) (next % files.length)];
+        ByteBuffer body = file.duplicate();
+        body.position(HEADER_SIZE);
+        store.copyTo(body);
+        int dedupKeys = 0;
+        for (String key : store.dedupKeys()) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length <= MAX_DEDUP_KEY_SIZE) {
+                body.putShort((short) bytes.length).put(bytes);
+                dedupKeys++;
+            }
+        }
+        for (Map.Entry<TopicPartition, Long> entry : offsets.entrySet()) {
+            byte[] topic = entry.getKey().topic().getBytes(StandardCharsets.UTF_8);
+            body.putShort((short) topic.length).put(topic).putInt(entry.getKey().partition()).putLong(entry.getValue());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body.flip().position(HEADER_SIZE));
+
+        // The header goes in last; until it's forced the other file still holds the previous snapshot
+        file.putInt(0, MAGIC)
+                .putInt(4, FORMAT)
+                .putLong(8, store.layout())
+                .putLong(16, next)
+                .putInt(24, (int) crc.getValue())
+                .putInt(28, offsets.size())
+                .putInt(32, dedupKeys);
+        try {
+            file.force();
+        } catch (UncheckedIOException e) {
+            throw new IllegalStateException("Failed to save sales snapshot", e);
+        }
+        generation = next;
+        savedUpdates = updates;
+    }
+
+    @Override
+    public synchronized Long restoredOffset(TopicPartition partition) {
+        return offsets.get(partition);
+    }
+
+    private void restore() {
+        MappedByteBuffer newest = null;
+        for (MappedByteBuffer file : files) {
+            if (valid(file) && (newest == null || file.getLong(16) > newest.getLong(16))) {
+                newest = file;
+            }
+        }
+        if (newest == null) {
+            logger.info("No sales snapshot to restore, starting empty");
+            return;
+        }
+
+        ByteBuffer body = newest.duplicate();
+        body.position(HEADER_SIZE).limit(HEADER_SIZE + store.byteSize());
+        store.restoreFrom(body);
+        body.limit(body.capacity());
+        List<String> dedupKeys = new ArrayList<>();
+        for (int i = newest.getInt(32); i > 0; i--) {
+            byte[] key = new byte[body.getShort()];
+            body.get(key);
+            dedupKeys.add(new String(key, StandardCharsets.UTF_8));
+        }
+        store.restoreDedupKeys(dedupKeys);
+        int count = newest.getInt(28);
+        for (int i = 0; i < count; i++) {
+            byte[] topic = new byte[body.getShort()];
+            body.get(topic);
+            offsets.put(new TopicPartition(new String(topic, StandardCharsets.UTF_8), body.getInt()), body.getLong());
+        }
+        generation = newest.getLong(16);
+        savedUpdates = store.updates();
+        logger.info("Restored sales snapshot {} with offsets {} and {} dedup keys", generation, offsets, dedupKeys.size());
+    }
+
+    private boolean valid(MappedByteBuffer file) {
+        if (file.getInt(0) != MAGIC || file.getInt(4) != FORMAT) {
+            return false;
+        }
+        if (file.getLong(8) != store.layout()) {
+            logger.warn("Ignoring sales snapshot {} taken with different store settings", file.getLong(16));
+            return false;
+        }
+        ByteBuffer body = file.duplicate();
+        body.position(HEADER_SIZE + store.byteSize());
+        int dedupKeys = file.getInt(32);
+        for (int i = 0; i < dedupKeys; i++) {
+            if (body.remaining() < 2) {
+                return false;
+            }
+            int keyLength = body.getShort();
+            if (keyLength < 0 || keyLength > MAX_DEDUP_KEY_SIZE || body.remaining() < keyLength) {
+                return false;
+            }
+            body.position(body.position() + keyLength);
+        }
+        int count = file.getInt(28);
+        for (int i = 0; i < count; i++) {
+            if (body.remaining() < 2) {
+                return false;
+            }
+            int topicLength = body.getShort();
+            if (topicLength < 0 || body.remaining() < topicLength + 12) {
+                return false;
+            }
+            body.position(body.position() + topicLength + 12);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body.flip().position(HEADER_SIZE));
+        return (int) crc.getValue() == file.getInt(24);
+    }
+}
@@ -0,0 +1,266 @@
+package io.odigos.kvMall;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Running per-product sales aggregates, kept off-heap in a fixed-size table so memory, snapshot size
+ * and lookups stay the same however many orders have been seen.
+ *
+ * <p>Each product has a slot:
+ * {@code used(4) productId(4) units(8) orders(8) lastOrderMillis(8) windows * [windowStartMillis(8) units(8)]}.
+ * Slots are handed out in the order products are first sold and found through an index of product id to slot.
+ * The windows are a ring of tumbling time windows, so the last {@code windows * windowMillis} of sales are
+ * kept per window and older ones are overwritten.
+ *
+ * <p>Orders are recorded concurrently: a slot is only locked (by stripe) while its own line is added, and the
+ * whole table only while it is copied or restored, so snapshots never see half an order.
+ */
+public class SalesStore {
+
+    private static final int SLOT_HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+    private static final int WINDOW_SIZE = 8 + 8;
+    private static final int UNITS = 8;
+    private static final int ORDERS = 16;
+    private static final int LAST_ORDER = 24;
+    private static final int STRIPES = 64;
+
+    private final ByteBuffer table;
+    private final int capacity;
+    private final int windows;
+    private final long windowMillis;
+    private final int slotSize;
+    private final int dedupWindow;
+    // Guarded by itself
+    private final Map<String, Boolean> recentDedupKeys;
+    // Product id to slot offset; slots are only added, under allocation
+    private final Map<Integer, Integer> slots = new ConcurrentHashMap<>();
+    private final Object allocation = new Object();
+    private final Object[] stripes = new Object[STRIPES];
+    // Shared by recording orders, exclusive for copying and restoring the table
+    private final ReentrantReadWriteLock tableLock = new ReentrantReadWriteLock();
+    private final AtomicLong updates = new AtomicLong();
+
+    public SalesStore(int maxProducts, int windows, long windowMillis, int dedupWindow) {
+        this.capacity = Math.max(1, maxProducts);
+        this.windows = windows;
+        this.windowMillis = windowMillis;
+        this.slotSize = SLOT_HEADER_SIZE + windows * WINDOW_SIZE;
+        this.dedupWindow = dedupWindow;
+        this.table = ByteBuffer.allocateDirect(Math.multiplyExact(capacity, slotSize));
+        this.recentDedupKeys = new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > dedupWindow;
+            }
+        };
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    // Adds an order's lines, all of them or, when the store has no room for one of its products, none.
+    // Returns false for an order already counted, recognised by the outbox's dedup key among the last
+    // dedupWindow ones seen. A key is only remembered once its order has been added, so an order that
+    // failed is counted when it comes again. Copies of one order carry the same record key and so are
+    // never recorded concurrently
+    public boolean record(OrderEvent event, String dedupKey) {
+        tableLock.readLock().lock();
+        try {
+            if (dedupKey != null) {
+                synchronized (recentDedupKeys) {
+                    if (recentDedupKeys.containsKey(dedupKey)) {
+                        return false;
+                    }
+                }
+            }
+            List<OrderLine> lines = event.getLines();
+            int[] lineSlots = slotsFor(lines);
+
+            long timestamp = event.getTimestampMillis();
+            long windowStart = timestamp - Math.floorMod(timestamp, windowMillis);
+            int windowOffset = SLOT_HEADER_SIZE + (int) Math.floorMod(windowStart / windowMillis, (long) windows) * WINDOW_SIZE;
+            for (int i = 0; i < lines.size(); i++) {
+                int slot = lineSlots[i];
+                long quantity = lines.get(i).getQuantity();
+                synchronized (stripe(slot)) {
+                    table.putLong(slot + UNITS, table.getLong(slot + UNITS) + quantity);
+                    table.putLong(slot + ORDERS, table.getLong(slot + ORDERS) + 1);
+                    if (timestamp > table.getLong(slot + LAST_ORDER)) {
+                        table.putLong(slot + LAST_ORDER, timestamp);
+                    }
+
+                    int window = slot + windowOffset;
+                    long storedStart = table.getLong(window);
+                    if (storedStart == windowStart) {
+                        table.putLong(window + 8, table.getLong(window + 8) + quantity);
+                    } else if (storedStart < windowStart) {
+                        // The ring has come around; whatever was here is older than every window kept
+                        table.putLong(window, windowStart);
+                        table.putLong(window + 8, quantity);
+                    }
+                    // Otherwise the order is older than the window kept in its place and only counts in the totals
+                }
+            }
+            updates.incrementAndGet();
+            if (dedupKey != null) {
+                synchronized (recentDedupKeys) {
+                    recentDedupKeys.put(dedupKey, Boolean.TRUE);
+                }
+            }
+            return true;
+        } finally {
+            tableLock.readLock().unlock();
+        }
+    }
+
+    public ProductSales product(int productId) {
+        Integer slot = slots.get(productId);
+        if (slot == null) {
+            return null;
+        }
+        synchronized (stripe(slot)) {
+            return read(slot);
+        }
+    }
+
+    public List<ProductSales> products() {
+        List<ProductSales> all = new ArrayList<>(slots.size());
+        for (int slot : slots.values()) {
+            synchronized (stripe(slot)) {
+                all.add(read(slot));
+            }
+        }
+        all.sort((a, b) -> Integer.compare(a.getProductId(), b.getProductId()));
+        return all;
+    }
+
+    // Changes whenever an order is recorded
+    public long updates() {
+        return updates.get();
+    }
+
+    // Size of the table as copied by copyTo
+    public int byteSize() {
+        return table.capacity();
+    }
+
+    // Settings the table's layout depends on, to tell whether a snapshot can be restored into it
+    public long layout() {
+        return ((long) capacity << 40) ^ ((long) windows << 24) ^ windowMillis;
+    }
+
+    public int dedupWindow() {
+        return dedupWindow;
+    }
+
+    public void copyTo(ByteBuffer target) {
+        tableLock.writeLock().lock();
+        try {
+            target.put(table.duplicate().clear());
+        } finally {
+            tableLock.writeLock().unlock();
+        }
+    }
+
+    public void restoreFrom(ByteBuffer source) {
+        tableLock.writeLock().lock();
+        try {
+            table.clear();
+            table.put(source);
+            table.clear();
+            synchronized (allocation) {
+                slots.clear();
+                for (int i = 0; i < capacity; i++) {
+                    int slot = i * slotSize;
+                    if (table.getInt(slot) != 0) {
+                        slots.put(table.getInt(slot + 4), slot);
+                    }
+                }
+            }
+        } finally {
+            tableLock.writeLock().unlock();
+        }
+    }
+
+    // The dedup keys remembered, oldest first
+    public List<String> dedupKeys() {
+        synchronized (recentDedupKeys) {
+            return new ArrayList<>(recentDedupKeys.keySet());
+        }
+    }
+
+    public void restoreDedupKeys(List<String> keys) {
+        synchronized (recentDedupKeys) {
+            recentDedupKeys.clear();
+            for (String key : keys) {
+                recentDedupKeys.put(key, Boolean.TRUE);
+            }
+        }
+    }
+
+    // The slots of the lines' products, first adding the missing ones; fails before adding any of them when
+    // the store can't take them all
+    private int[] slotsFor(List<OrderLine> lines) {
+        int[] lineSlots = new int[lines.size()];
+        Set<Integer> missing = null;
+        for (int i = 0; i < lineSlots.length; i++) {
+            Integer slot = slots.get(lines.get(i).getProductId());
+            if (slot == null) {
+                if (missing == null) {
+                    missing = new LinkedHashSet<>();
+                }
+                missing.add(lines.get(i).getProductId());
+            } else {
+                lineSlots[i] = slot;
+            }
+        }
+        if (missing == null) {
+            return lineSlots;
+        }
+
+        synchronized (allocation) {
+            missing.removeIf(slots::containsKey);
+            if (slots.size() + missing.size() > capacity) {
+                throw new IllegalStateException("Sales store is full, can't add products " + missing);
+            }
+            for (int productId : missing) {
+                int slot = slots.size() * slotSize;
+                table.putInt(slot + 4, productId);
+                table.putInt(slot, 1);
+                slots.put(productId, slot);
+            }
+        }
+        for (int i = 0; i < lineSlots.length; i++) {
+            lineSlots[i] = slots.get(lines.get(i).getProductId());
+        }
+        return lineSlots;
+    }
+
+    private Object stripe(int slot) {
+        return stripes[(slot / slotSize) % STRIPES];
+    }
+
+    private ProductSales read(int slot) {
+        long oldestKept = table.getLong(slot + LAST_ORDER) - (long) windows * windowMillis;
+        List<ProductSales.Window> recent = new ArrayList<>();
+        for (int w = 0; w < windows; w++) {
+            int window = slot + SLOT_HEADER_SIZE + w * WINDOW_SIZE;
+            long start = table.getLong(window);
+            if (start > oldestKept && table.getLong(window + 8) > 0) {
+                recent.add(new ProductSales.Window(start, start + windowMillis, table.getLong(window + 8)));
+            }
+        }
+        recent.sort((a, b) -> Long.compare(a.getStartMillis(), b.getStartMillis()));
+        return new ProductSales(table.getInt(slot + 4), table.getLong(slot + UNITS), table.getLong(slot + ORDERS),
+                table.getLong(slot + LAST_ORDER), recent);
+    }
+}
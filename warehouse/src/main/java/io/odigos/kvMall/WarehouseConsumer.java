@@ -1,44 +1,302 @@
 package io.odigos.kvMall;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.WakeupException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class WarehouseConsumer {
 
-    private final KafkaConsumer<String, String> consumer;
+    // Tries per record before it goes to the dead letters, backing off a little longer each time
+    private static final int HANDLE_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MILLIS = 100;
+
+    private final KafkaConsumer<String, byte[]> consumer;
+    private final RecordHandler handler;
+    private final DeadLetters deadLetters;
+    private final OffsetCheckpoint checkpoint;
+    private final ExecutorService workers;
+    private final int workerCount;
+    private final Duration pollTimeout;
+    private final long commitIntervalMillis;
+    private final MeterRegistry meterRegistry;
+    private final Counter deadLettered;
+    private final Counter unhandled;
+
+    // Offsets of fully processed records that haven't been committed yet
+    private final Map<TopicPartition, OffsetAndMetadata> pendingOffsets = new HashMap<>();
+    private long lastCommitMillis = System.currentTimeMillis();
+    // Records behind the end of each assigned partition once the last poll's records have been processed,
+    // -1 until the consumer has fetched from it
+    private final Map<TopicPartition, AtomicLong> lags = new HashMap<>();
+    private final Map<TopicPartition, Gauge> lagGauges = new HashMap<>();
 
     private static final Logger logger = LoggerFactory.getLogger(WarehouseConsumer.class);
 
-    public WarehouseConsumer(KafkaConsumer<String, String> consumer) {
+    public WarehouseConsumer(KafkaConsumer<String, byte[]> consumer) {
+        this(consumer, new OrderRecordHandler(new SalesStore(1024, 60, 60000, 100000), new SimpleMeterRegistry()),
+                DeadLetters.NONE, OffsetCheckpoint.NONE, Runtime.getRuntime().availableProcessors(), Duration.ofMillis(100), 1000,
+                new SimpleMeterRegistry());
+    }
+
+    public WarehouseConsumer(KafkaConsumer<String, byte[]> consumer, RecordHandler handler, DeadLetters deadLetters,
+                             OffsetCheckpoint checkpoint, int workerCount, Duration pollTimeout, long commitIntervalMillis,
+                             MeterRegistry meterRegistry) {
         this.consumer = consumer;
+        this.handler = handler;
+        this.deadLetters = deadLetters;
+        this.checkpoint = checkpoint;
+        this.workerCount = workerCount;
+        this.workers = Executors.newFixedThreadPool(workerCount);
+        this.pollTimeout = pollTimeout;
+        this.commitIntervalMillis = commitIntervalMillis;
+        this.meterRegistry = meterRegistry;
+        this.deadLettered = failedRecords("dead_lettered", "Records sent to the dead-letter topic after failing every attempt");
+        this.unhandled = failedRecords("unhandled", "Records that failed every attempt and couldn't be dead-lettered, so are read again");
+    }
+
+    private Counter failedRecords(String outcome, String description) {
+        return Counter.builder("warehouse.records.failed")
+                .description(description)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
     }
 
     public void consume() {
-        logger.info("Consuming messages");
+        logger.info("Consuming messages with {} workers", workerCount);
 
         try {
-            this.consumer.subscribe(Arrays.asList("orders"));
+            this.consumer.subscribe(List.of("orders"), new CommitOnRevoke());
             while (true) {
-                ConsumerRecords<String, String> records = this.consumer.poll(Duration.ofMillis(100));
-                for (ConsumerRecord<String, String> record : records) {
-                    logger.info("Received message: " + record.value());
-                    record.headers().forEach(header -> logger.info("Header: " + header.key() + " - " + new String(header.value())));
+                ConsumerRecords<String, byte[]> records = this.consumer.poll(pollTimeout);
+                if (!records.isEmpty()) {
+                    process(records);
                 }
+                updateLags();
+                maybeCommit();
             }
         } catch (WakeupException e) {
             logger.info("Received shutdown signal");
         } catch (Exception e) {
             logger.error("Error while consuming messages", e);
         } finally {
-            this.consumer.close();
-            logger.info("Consumer has been closed");
+            try {
+                commitPending();
+            } finally {
+                this.workers.shutdown();
+                this.consumer.close();
+                logger.info("Consumer has been closed");
+            }
+        }
+    }
+
+    // Handles one poll's worth of records in parallel and waits for all of it, so nothing is
+    // still in flight when the next poll runs a rebalance. A partition with a record that couldn't be handled
+    // is committed only up to that record and read again from there
+    private void process(ConsumerRecords<String, byte[]> records) throws InterruptedException {
+        List<List<ConsumerRecord<String, byte[]>>> lanes = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            lanes.add(new ArrayList<>());
+        }
+        for (ConsumerRecord<String, byte[]> record : records) {
+            lanes.get(laneOf(record)).add(record);
+        }
+
+        // The first offset per partition that wasn't handled
+        Map<TopicPartition, Long> failed = new ConcurrentHashMap<>();
+        List<Callable<Void>> tasks = new ArrayList<>(workerCount);
+        for (List<ConsumerRecord<String, byte[]>> lane : lanes) {
+            if (!lane.isEmpty()) {
+                tasks.add(() -> {
+                    for (ConsumerRecord<String, byte[]> record : lane) {
+                        if (!handle(record)) {
+                            failed.merge(new TopicPartition(record.topic(), record.partition()), record.offset(), Math::min);
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+        for (Future<Void> result : workers.invokeAll(tasks)) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                // Only errors get here; which records they left unhandled isn't known, so nothing of this poll is committed
+                throw new IllegalStateException("Worker failed while processing records", e.getCause());
+            }
+        }
+
+        for (TopicPartition partition : records.partitions()) {
+            List<ConsumerRecord<String, byte[]>> partitionRecords = records.records(partition);
+            Long failedOffset = failed.get(partition);
+            if (failedOffset == null) {
+                long lastOffset = partitionRecords.get(partitionRecords.size() - 1).offset();
+                pendingOffsets.put(partition, new OffsetAndMetadata(lastOffset + 1));
+            } else {
+                // Records after it that were handled come again too; those relayed by the outbox are dropped by dedup key
+                if (failedOffset > partitionRecords.get(0).offset()) {
+                    pendingOffsets.put(partition, new OffsetAndMetadata(failedOffset));
+                }
+                consumer.seek(partition, failedOffset);
+            }
+        }
+    }
+
+    // Records with the same key always land in the same lane, which keeps per-key order;
+    // keyless records stay in partition order
+    private int laneOf(ConsumerRecord<String, byte[]> record) {
+        Object orderKey = record.key() != null ? record.key() : record.partition();
+        return Math.floorMod(orderKey.hashCode(), workerCount);
+    }
+
+    // True when the record was handled or, having failed every attempt, dead-lettered
+    private boolean handle(ConsumerRecord<String, byte[]> record) {
+        RuntimeException failure = null;
+        for (int attempt = 1; attempt <= HANDLE_ATTEMPTS; attempt++) {
+            try {
+                handler.handle(record);
+                return true;
+            } catch (RuntimeException e) {
+                failure = e;
+                logger.warn("Failed to handle record {}-{}@{} (attempt {} of {}): {}", record.topic(), record.partition(),
+                        record.offset(), attempt, HANDLE_ATTEMPTS, e.toString());
+            }
+            if (attempt < HANDLE_ATTEMPTS) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(RETRY_BACKOFF_MILLIS * attempt);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if (deadLetters.send(record, failure)) {
+            deadLettered.increment();
+            logger.error("Dead-lettered record {}-{}@{}", record.topic(), record.partition(), record.offset(), failure);
+            return true;
+        }
+        unhandled.increment();
+        logger.error("Failed to handle record {}-{}@{}, it will be read again", record.topic(), record.partition(), record.offset(), failure);
+        return false;
+    }
+
+    private void updateLags() {
+        for (Map.Entry<TopicPartition, AtomicLong> lag : lags.entrySet()) {
+            OptionalLong current = consumer.currentLag(lag.getKey());
+            if (current.isPresent()) {
+                lag.getValue().set(current.getAsLong());
+            }
+        }
+    }
+
+    private void maybeCommit() {
+        if (System.currentTimeMillis() - lastCommitMillis >= commitIntervalMillis) {
+            commitPending();
+        }
+    }
+
+    private void commitPending() {
+        lastCommitMillis = System.currentTimeMillis();
+        if (pendingOffsets.isEmpty()) {
+            return;
+        }
+        // Local state is saved first: if the commit then fails, the restart resumes from what was saved
+        checkpoint.save(pendingOffsets);
+        this.consumer.commitSync(new HashMap<>(pendingOffsets));
+        logger.debug("Committed offsets {}", pendingOffsets);
+        pendingOffsets.clear();
+    }
+
+    private class CommitOnRevoke implements ConsumerRebalanceListener {
+
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            // Everything polled so far has been processed, so commit it before another consumer takes over
+            Map<TopicPartition, OffsetAndMetadata> revoked = new HashMap<>();
+            for (TopicPartition partition : partitions) {
+                OffsetAndMetadata offset = pendingOffsets.remove(partition);
+                if (offset != null) {
+                    revoked.put(partition, offset);
+                }
+            }
+            if (!revoked.isEmpty()) {
+                checkpoint.save(revoked);
+                consumer.commitSync(revoked);
+            }
+            for (TopicPartition partition : partitions) {
+                lags.remove(partition);
+                Gauge gauge = lagGauges.remove(partition);
+                if (gauge != null) {
+                    meterRegistry.remove(gauge);
+                }
+            }
+            logger.info("Partitions revoked: {}", partitions);
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            logger.info("Partitions assigned: {}", partitions);
+            if (partitions.isEmpty()) {
+                return;
+            }
+            for (TopicPartition partition : partitions) {
+                AtomicLong lag = new AtomicLong(-1);
+                lags.put(partition, lag);
+                lagGauges.put(partition, Gauge.builder("warehouse.consumer.lag", lag, l -> l.get() < 0 ? Double.NaN : l.get())
+                        .description("Records in the partition the warehouse hasn't processed yet")
+                        .tag("topic", partition.topic())
+                        .tag("partition", String.valueOf(partition.partition()))
+                        .register(meterRegistry));
+            }
+            if (checkpoint == OffsetCheckpoint.NONE) {
+                return;
+            }
+            // The saved state covers the partition up to its saved offset, whatever the group has committed since:
+            // records another consumer handled in the meantime are in that consumer's state, not this one's. With
+            // nothing saved for the partition (a new volume, say) the state is rebuilt from the start of it rather
+            // than quietly starting from zero at the committed offset
+            Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(new HashSet<>(partitions));
+            List<TopicPartition> rebuild = new ArrayList<>();
+            for (TopicPartition partition : partitions) {
+                Long restored = checkpoint.restoredOffset(partition);
+                OffsetAndMetadata offset = committed.get(partition);
+                if (restored == null) {
+                    rebuild.add(partition);
+                } else if (offset == null || restored != offset.offset()) {
+                    logger.info("Resuming {} from the saved offset {} instead of the committed {}", partition, restored, offset);
+                    consumer.seek(partition, restored);
+                }
+            }
+            if (!rebuild.isEmpty()) {
+                logger.warn("No saved state for {}, rebuilding it from the start of the partitions", rebuild);
+                consumer.seekToBeginning(rebuild);
+            }
         }
     }
 }
@@ -0,0 +1,132 @@
+package io.odigos.kvMall;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Serves the sales aggregates (GET /sales for every product, GET /sales?id=12 for one) and the
+// warehouse's metrics for Prometheus on GET /metrics
+public class WarehouseHttpServer implements AutoCloseable {
+
+    private static final String JSON = "application/json";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public WarehouseHttpServer(int port, SalesStore salesStore, PrometheusMeterRegistry meterRegistry) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = Executors.newFixedThreadPool(2);
+        this.server.setExecutor(executor);
+        this.server.createContext("/sales", exchange -> {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    respond(exchange, 405, null, "");
+                    return;
+                }
+                String id = queryParam(exchange, "id");
+                if (id == null) {
+                    respond(exchange, 200, JSON, json(salesStore.products()));
+                    return;
+                }
+                ProductSales sales;
+                try {
+                    sales = salesStore.product(Integer.parseInt(id));
+                } catch (NumberFormatException e) {
+                    respond(exchange, 400, null, "");
+                    return;
+                }
+                if (sales == null) {
+                    respond(exchange, 404, null, "");
+                } else {
+                    respond(exchange, 200, JSON, json(sales, new StringBuilder()).toString());
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        this.server.createContext("/metrics", exchange -> {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    respond(exchange, 405, null, "");
+                    return;
+                }
+                respond(exchange, 200, TextFormat.CONTENT_TYPE_004, meterRegistry.scrape());
+            } finally {
+                exchange.close();
+            }
+        });
+        this.server.start();
+    }
+
+    private static String json(List<ProductSales> products) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < products.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json(products.get(i), json);
+        }
+        return json.append(']').toString();
+    }
+
+    private static StringBuilder json(ProductSales sales, StringBuilder json) {
+        json.append("{\"productId\":").append(sales.getProductId())
+                .append(",\"units\":").append(sales.getUnits())
+                .append(",\"orders\":").append(sales.getOrders())
+                .append(",\"lastOrderMillis\":").append(sales.getLastOrderMillis())
+                .append(",\"windows\":[");
+        List<ProductSales.Window> windows = sales.getWindows();
+        for (int i = 0; i < windows.size(); i++) {
+            ProductSales.Window window = windows.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"startMillis\":").append(window.getStartMillis())
+                    .append(",\"endMillis\":").append(window.getEndMillis())
+                    .append(",\"units\":").append(window.getUnits()).append('}');
+        }
+        return json.append("]}");
+    }
+
+    private static String queryParam(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return pair.substring(eq + 1);
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (contentType != null) {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+        }
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,92 @@
+package io.odigos.kvMall;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OrderEventDecoderTest {
+
+    // Written by inventory's OrderEventSerializer (see its test) for order 42: 3 of product 7 at 19.99 USD
+    static final String VERSION_1_EVENT = "ce01" + "000000000000002a" + "00000007" + "00000003" + "00000000000007cf"
+            + "555344" + "0000018bcfe56800";
+    // Order 43, a cart of 1 of product 7 at 5.00 EUR and 2 of product 9 at 2.50 EUR
+    static final String VERSION_2_EVENT = "ce02" + "000000000000002b" + "455552" + "0000018bcfe56800" + "0002"
+            + "00000007" + "00000001" + "00000000000001f4" + "00000009" + "00000002" + "00000000000000fa";
+
+    @Test
+    void decodesWhatInventoryWrites() {
+        OrderEvent event = OrderEventDecoder.decode(hex(VERSION_1_EVENT), 0);
+
+        assertThat(event.getVersion()).isEqualTo(1);
+        assertThat(event.isLegacy()).isFalse();
+        assertThat(event.getOrderId()).isEqualTo(42);
+        assertThat(event.getLines()).hasSize(1);
+        assertThat(event.getLines().get(0).getProductId()).isEqualTo(7);
+        assertThat(event.getLines().get(0).getQuantity()).isEqualTo(3);
+        assertThat(event.getLines().get(0).getPriceMinor()).isEqualTo(1999);
+        assertThat(event.getCurrency()).isEqualTo("USD");
+        assertThat(event.getTimestampMillis()).isEqualTo(1_700_000_000_000L);
+    }
+
+    @Test
+    void decodesCarts() {
+        OrderEvent event = OrderEventDecoder.decode(hex(VERSION_2_EVENT), 0);
+
+        assertThat(event.getVersion()).isEqualTo(2);
+        assertThat(event.getOrderId()).isEqualTo(43);
+        assertThat(event.getCurrency()).isEqualTo("EUR");
+        assertThat(event.getTimestampMillis()).isEqualTo(1_700_000_000_000L);
+        assertThat(event.getLines()).hasSize(2);
+        assertThat(event.getLines().get(0).getProductId()).isEqualTo(7);
+        assertThat(event.getLines().get(0).getQuantity()).isEqualTo(1);
+        assertThat(event.getLines().get(0).getPriceMinor()).isEqualTo(500);
+        assertThat(event.getLines().get(1).getProductId()).isEqualTo(9);
+        assertThat(event.getLines().get(1).getQuantity()).isEqualTo(2);
+        assertThat(event.getLines().get(1).getPriceMinor()).isEqualTo(250);
+    }
+
+    @Test
+    void readsLegacyTextEventsAsOneItem() {
+        byte[] value = "Product with id 12 has been bought".getBytes(StandardCharsets.UTF_8);
+
+        OrderEvent event = OrderEventDecoder.decode(value, 1234);
+
+        assertThat(event.isLegacy()).isTrue();
+        assertThat(event.getLines()).hasSize(1);
+        assertThat(event.getLines().get(0).getProductId()).isEqualTo(12);
+        assertThat(event.getLines().get(0).getQuantity()).isEqualTo(1);
+        assertThat(event.getTimestampMillis()).isEqualTo(1234);
+    }
+
+    @Test
+    void rejectsWhatItCannotRead() {
+        byte[] event = hex(VERSION_1_EVENT);
+        byte[] truncated = Arrays.copyOf(event, event.length - 1);
+        byte[] unknownVersion = event.clone();
+        unknownVersion[1] = 9;
+
+        byte[] cart = hex(VERSION_2_EVENT);
+        byte[] missingLine = Arrays.copyOf(cart, cart.length - 16);
+
+        assertThatThrownBy(() -> OrderEventDecoder.decode(truncated, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> OrderEventDecoder.decode(missingLine, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> OrderEventDecoder.decode(unknownVersion, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> OrderEventDecoder.decode(new byte[0], 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> OrderEventDecoder.decode("Product with id x".getBytes(StandardCharsets.UTF_8), 0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> OrderEventDecoder.decode("hello".getBytes(StandardCharsets.UTF_8), 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
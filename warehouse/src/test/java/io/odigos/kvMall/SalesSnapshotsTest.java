@@ -0,0 +1,87 @@
+package io.odigos.kvMall;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import static io.odigos.kvMall.SalesStoreTest.order;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SalesSnapshotsTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("orders", 0);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restoresTheStoreOffsetsAndDedupKeys() throws IOException {
+        SalesStore store = store();
+        SalesSnapshots snapshots = new SalesSnapshots(directory, store);
+        assertThat(snapshots.restoredOffset(PARTITION)).isNull();
+        store.record(order(1, 7, 2, 500), "log-1");
+        store.record(order(2, 9, 3, 1500), "log-2");
+        snapshots.save(Map.of(PARTITION, new OffsetAndMetadata(5)));
+
+        SalesStore restored = store();
+        SalesSnapshots reopened = new SalesSnapshots(directory, restored);
+
+        assertThat(reopened.restoredOffset(PARTITION)).isEqualTo(5L);
+        assertThat(restored.product(7).getUnits()).isEqualTo(2);
+        assertThat(restored.product(9).getWindows()).extracting(ProductSales.Window::getStartMillis).containsExactly(1000L);
+        assertThat(restored.dedupKeys()).containsExactly("log-1", "log-2");
+        assertThat(restored.record(order(2, 9, 3, 1500), "log-2")).isFalse();
+    }
+
+    @Test
+    void corruptNewestSnapshotFallsBackToThePreviousOne() throws IOException {
+        SalesStore store = store();
+        SalesSnapshots snapshots = new SalesSnapshots(directory, store);
+        store.record(order(1, 7, 2, 500), "log-1");
+        snapshots.save(Map.of(PARTITION, new OffsetAndMetadata(5)));
+        store.record(order(2, 7, 3, 500), "log-2");
+        snapshots.save(Map.of(PARTITION, new OffsetAndMetadata(8)));
+
+        // The second snapshot went to sales-0; flip a byte of its store as a torn write would leave it
+        try (FileChannel channel = FileChannel.open(directory.resolve("sales-0.snapshot"), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.allocate(1);
+            channel.read(bytes, 100);
+            bytes.put(0, (byte) (bytes.get(0) ^ 0xFF));
+            channel.write(bytes.rewind(), 100);
+        }
+
+        SalesStore restored = store();
+        SalesSnapshots reopened = new SalesSnapshots(directory, restored);
+
+        assertThat(reopened.restoredOffset(PARTITION)).isEqualTo(5L);
+        assertThat(restored.product(7).getUnits()).isEqualTo(2);
+        assertThat(restored.dedupKeys()).containsExactly("log-1");
+    }
+
+    @Test
+    void ignoresSnapshotsOfADifferentlySizedStore() throws IOException {
+        SalesStore store = store();
+        SalesSnapshots snapshots = new SalesSnapshots(directory, store);
+        store.record(order(1, 7, 2, 500), "log-1");
+        snapshots.save(Map.of(PARTITION, new OffsetAndMetadata(5)));
+
+        SalesStore resized = new SalesStore(20, 3, 1000, 10);
+        SalesSnapshots reopened = new SalesSnapshots(directory, resized);
+
+        assertThat(reopened.restoredOffset(PARTITION)).isNull();
+        assertThat(resized.products()).isEmpty();
+    }
+
+    private static SalesStore store() {
+        return new SalesStore(10, 3, 1000, 10);
+    }
+}
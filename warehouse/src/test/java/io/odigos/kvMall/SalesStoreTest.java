@@ -0,0 +1,101 @@
+package io.odigos.kvMall;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SalesStoreTest {
+
+    @Test
+    void countsEachOrderInItsWindow() {
+        SalesStore store = new SalesStore(10, 3, 1000, 10);
+
+        store.record(order(1, 7, 2, 1500), null);
+        store.record(order(2, 7, 3, 2500), null);
+        store.record(order(3, 7, 1, 2900), null);
+
+        ProductSales sales = store.product(7);
+        assertThat(sales.getUnits()).isEqualTo(6);
+        assertThat(sales.getOrders()).isEqualTo(3);
+        assertThat(sales.getLastOrderMillis()).isEqualTo(2900);
+        assertThat(sales.getWindows()).extracting(ProductSales.Window::getStartMillis).containsExactly(1000L, 2000L);
+        assertThat(sales.getWindows()).extracting(ProductSales.Window::getUnits).containsExactly(2L, 4L);
+        assertThat(store.product(8)).isNull();
+    }
+
+    @Test
+    void ringOverwritesTheOldestWindow() {
+        SalesStore store = new SalesStore(10, 3, 1000, 10);
+
+        store.record(order(1, 7, 1, 500), null);
+        store.record(order(2, 7, 2, 1500), null);
+        store.record(order(3, 7, 3, 2500), null);
+        // Lands in the first window's place
+        store.record(order(4, 7, 4, 3500), null);
+        // Older than the window now in its place, so it only counts in the totals
+        store.record(order(5, 7, 5, 600), null);
+
+        ProductSales sales = store.product(7);
+        assertThat(sales.getUnits()).isEqualTo(15);
+        assertThat(sales.getOrders()).isEqualTo(5);
+        assertThat(sales.getWindows()).extracting(ProductSales.Window::getStartMillis).containsExactly(1000L, 2000L, 3000L);
+        assertThat(sales.getWindows()).extracting(ProductSales.Window::getUnits).containsExactly(2L, 3L, 4L);
+    }
+
+    @Test
+    void fullStoreCountsNoneOfTheOrder() {
+        SalesStore store = new SalesStore(2, 3, 1000, 10);
+        store.record(order(1, 1, 1, 500), "a");
+        long updates = store.updates();
+
+        OrderEvent cart = new OrderEvent(2, 2, List.of(new OrderLine(1, 5, 100), new OrderLine(2, 1, 100),
+                new OrderLine(3, 1, 100)), "USD", 600);
+        assertThatThrownBy(() -> store.record(cart, "b")).isInstanceOf(IllegalStateException.class);
+
+        assertThat(store.product(1).getUnits()).isEqualTo(1);
+        assertThat(store.product(2)).isNull();
+        assertThat(store.product(3)).isNull();
+        assertThat(store.updates()).isEqualTo(updates);
+        // Not taken for counted, so the order is counted should it come again once there's room
+        assertThat(store.dedupKeys()).containsExactly("a");
+    }
+
+    @Test
+    void countsAnOrderOnceWhileItsDedupKeyIsRemembered() {
+        SalesStore store = new SalesStore(10, 3, 1000, 2);
+
+        assertThat(store.record(order(1, 7, 1, 500), "a")).isTrue();
+        assertThat(store.record(order(1, 7, 1, 500), "a")).isFalse();
+        assertThat(store.record(order(2, 7, 1, 500), "b")).isTrue();
+        assertThat(store.record(order(3, 7, 1, 500), "c")).isTrue();
+        // Pushed out by the two after it
+        assertThat(store.record(order(1, 7, 1, 500), "a")).isTrue();
+
+        assertThat(store.product(7).getUnits()).isEqualTo(4);
+        assertThat(store.dedupKeys()).containsExactly("c", "a");
+    }
+
+    @Test
+    void restoredTableFindsItsProducts() {
+        SalesStore store = new SalesStore(10, 3, 1000, 10);
+        store.record(order(1, 7, 2, 500), null);
+        store.record(order(2, 9, 3, 500), null);
+        ByteBuffer copy = ByteBuffer.allocate(store.byteSize());
+        store.copyTo(copy);
+
+        SalesStore restored = new SalesStore(10, 3, 1000, 10);
+        restored.restoreFrom(copy.flip());
+        restored.record(order(3, 11, 1, 500), null);
+
+        assertThat(restored.products()).extracting(ProductSales::getProductId).containsExactly(7, 9, 11);
+        assertThat(restored.product(9).getUnits()).isEqualTo(3);
+    }
+
+    static OrderEvent order(long orderId, int productId, int quantity, long timestampMillis) {
+        return new OrderEvent(OrderEventDecoder.VERSION_1, orderId, productId, quantity, 100, "USD", timestampMillis);
+    }
+}